@@ -0,0 +1,106 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Parsing of the tile coordinates out of the tile paths, for each layout */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TileCalculatorBenchmark {
+
+    static final int TILES = 1365;
+
+    @Param({"gwc", "xyz", "tms", "blob"})
+    String layout;
+
+    TileCalculator calculator;
+
+    GridSet gridSet = new DefaultGridsets(true, true).worldEpsg3857();
+
+    File[] tiles;
+
+    /** Context of the directory containing each tile, as built by the walk */
+    TileDirectory[] directories;
+
+    String[] names;
+
+    long[] coordinates = new long[3];
+
+    @Setup
+    public void setup() {
+        calculator = TileTrees.getTileCalculator(layout);
+        // zoom levels 0 to 5
+        List<String> paths = TileTrees.getTilePaths(layout, 5);
+        tiles = new File[TILES];
+        directories = new TileDirectory[TILES];
+        names = new String[TILES];
+        for (int i = 0; i < TILES; i++) {
+            tiles[i] = new File("/cache/layer", paths.get(i));
+            String[] parts = paths.get(i).split("/");
+            TileDirectory directory =
+                    calculator.getGridsetDirectory(Paths.get("/cache/layer", parts[0]));
+            for (int j = 1; j < parts.length - 1; j++) {
+                directory = calculator.getChildDirectory(directory, parts[j]);
+                if (directory == null)
+                    throw new IllegalStateException("Not a tile path: " + paths.get(i));
+            }
+            directories[i] = directory;
+            names[i] = parts[parts.length - 1];
+        }
+    }
+
+    /** The path parsing of the pipeline, with the directory context and a reused array */
+    @Benchmark
+    @OperationsPerInvocation(TILES)
+    public void getCoordinates(Blackhole blackhole) {
+        for (int i = 0; i < TILES; i++) {
+            blackhole.consume(
+                    calculator.getCoordinates(directories[i], names[i], gridSet, coordinates));
+            blackhole.consume(coordinates[0] + coordinates[1] + coordinates[2]);
+        }
+    }
+
+    /** Baseline: parsing of the full tile path, allocating the result */
+    @Benchmark
+    @OperationsPerInvocation(TILES)
+    public void getCoordinatesFromFile(Blackhole blackhole) {
+        for (File tile : tiles) {
+            blackhole.consume(calculator.getCoordinates(tile, gridSet));
+        }
+    }
+}
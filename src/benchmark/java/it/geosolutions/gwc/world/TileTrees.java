@@ -0,0 +1,94 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+
+/** Builds synthetic tile paths and trees, in the supported layouts, for the benchmarks */
+class TileTrees {
+
+    static TileCalculator getTileCalculator(String layout) {
+        switch (layout) {
+            case "gwc":
+                return new GWCTileCalculator();
+            case "xyz":
+                return new XYZTileCalculator();
+            case "tms":
+                return new TMSTileCalculator();
+            case "blob":
+                return new BlobTileCalculator();
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+
+    /** Path of a tile of the EPSG:900913 gridset, relative to the layer directory */
+    static String getTilePath(String layout, long x, long y, int z) {
+        switch (layout) {
+            case "gwc":
+                // spread the tiles in sub-directories, as GWC FilePathGenerator does
+                long half = 2L << (z / 2);
+                int digits = half > 10 ? (int) Math.log10(half) + 1 : 1;
+                return String.format(
+                        "EPSG_900913_%02d/%s_%s/%s_%s.png",
+                        z,
+                        pad(x / half, digits),
+                        pad(y / half, digits),
+                        pad(x, 2 * digits),
+                        pad(y, 2 * digits));
+            case "xyz":
+            case "tms":
+                return "EPSG_900913/" + z + "/" + x + "/" + y + ".png";
+            case "blob":
+                return "EPSG%3A900913/png/" + z + "/" + x + "/" + y + ".png";
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+
+    private static String pad(long value, int digits) {
+        return String.format("%0" + digits + "d", value);
+    }
+
+    /** Tile paths covering the world in EPSG:900913, from zoom level 0 up to maxZoom */
+    static List<String> getTilePaths(String layout, int maxZoom) {
+        List<String> paths = new ArrayList<>();
+        for (int z = 0; z <= maxZoom; z++) {
+            long tiles = 1L << z;
+            for (long x = 0; x < tiles; x++) {
+                for (long y = 0; y < tiles; y++) {
+                    paths.add(getTilePath(layout, x, y, z));
+                }
+            }
+        }
+        return paths;
+    }
+
+    /** Creates a tree of empty tiles in a new temporary directory */
+    static File createTree(String layout, int maxZoom) throws IOException {
+        File layer = Files.createTempDirectory("gwc-worldfiles-bench").toFile();
+        for (String path : getTilePaths(layout, maxZoom)) {
+            FileUtils.touch(new File(layer, path));
+        }
+        return layer;
+    }
+}
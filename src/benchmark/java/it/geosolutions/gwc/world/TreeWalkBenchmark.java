@@ -0,0 +1,86 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSetBroker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end run of the world files pipeline over a synthetic tile tree in a temporary directory.
+ * The tree is generated once, and the world files are created before the measurements start, so
+ * the runs without overwrite measure a re-run over a complete cache, the ones with overwrite
+ * measure a full regeneration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TreeWalkBenchmark {
+
+    @Param({"gwc", "xyz"})
+    String layout;
+
+    @Param({"false", "true"})
+    boolean overwrite;
+
+    /** Zoom level 8 makes for about 87k tiles */
+    @Param({"8"})
+    int maxZoom;
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    File layer;
+
+    @Setup
+    public void setup() throws Exception {
+        layer = TileTrees.createTree(layout, maxZoom);
+        run(new RunOptions());
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(layer);
+    }
+
+    @Benchmark
+    public long walk() throws Exception {
+        RunOptions options = new RunOptions();
+        options.overwrite = overwrite;
+        return run(options);
+    }
+
+    private long run(RunOptions options) throws Exception {
+        TileCalculator calculator = TileTrees.getTileCalculator(layout);
+        return new WorldFilesPipeline(calculator, broker, options, Printer.QUIET).run(layer);
+    }
+}
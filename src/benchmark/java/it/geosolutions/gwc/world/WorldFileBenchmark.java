@@ -0,0 +1,103 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Rendering of the world file contents, coordinate parsing included */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WorldFileBenchmark {
+
+    static final int TILES = 1365;
+
+    @Param({"gwc", "xyz"})
+    String layout;
+
+    WorldFileWriter writer;
+
+    File[] tiles;
+
+    /** GWC internal coordinates of the tiles, parsed up front */
+    long[][] coordinates;
+
+    WorldFileModel model;
+
+    StringBuilder contents = new StringBuilder();
+
+    @Setup
+    public void setup() throws Exception {
+        GridSet gridSet = new DefaultGridsets(true, true).worldEpsg3857();
+        TileCalculator calculator = TileTrees.getTileCalculator(layout);
+        writer = new WorldFileWriter(gridSet, calculator, false, false);
+        model = new WorldFileModel(gridSet);
+        List<String> paths = TileTrees.getTilePaths(layout, 5);
+        tiles = new File[TILES];
+        coordinates = new long[TILES][];
+        for (int i = 0; i < TILES; i++) {
+            tiles[i] = new File("/cache/layer", paths.get(i));
+            coordinates[i] = calculator.getCoordinates(tiles[i], gridSet);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILES)
+    public void getWorldFile(Blackhole blackhole) {
+        for (File tile : tiles) {
+            blackhole.consume(writer.getWorldFile(tile));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILES)
+    public void getWorldFileReusingBuffer(Blackhole blackhole) {
+        for (File tile : tiles) {
+            contents.setLength(0);
+            blackhole.consume(writer.getWorldFile(tile, contents));
+        }
+    }
+
+    /** The rendering alone, as the compute stage does it, without parsing the tile paths */
+    @Benchmark
+    @OperationsPerInvocation(TILES)
+    public void render(Blackhole blackhole) {
+        for (long[] c : coordinates) {
+            contents.setLength(0);
+            model.render(c[0], c[1], (int) c[2], contents);
+            blackhole.consume(contents.length());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Streams the tiles along with their world files (and projection files, if enabled) into a single
+ * archive, in one sequential write. Tiles are read by the write stage threads in parallel, the
+ * archive entries are appended one tile at a time. Entry names are relative to the parent of the
+ * layer directory, so that the archive unpacks into a directory named after the layer.
+ */
+abstract class ArchiveSink implements WorldFileSink {
+
+    final File file;
+
+    OutputStream output;
+
+    Path root;
+
+    long time;
+
+    ArchiveSink(File file) {
+        this.file = file;
+    }
+
+    /** Builds the archive sink matching the file extension: .zip, .tar, .tar.gz or .tgz */
+    static ArchiveSink forFile(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".zip")) return new Zip(file);
+        if (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+            return new Tar(file);
+        return null;
+    }
+
+    @Override
+    public void open(File layer) throws IOException {
+        root = layer.getAbsoluteFile().toPath().getParent();
+        time = System.currentTimeMillis();
+        output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        start();
+    }
+
+    /** Wraps the output as needed, before the first entry */
+    abstract void start() throws IOException;
+
+    /** Appends an entry to the archive, compressed if not already compressed data */
+    abstract void addEntry(String name, byte[] contents, int offset, int length, boolean compress)
+            throws IOException;
+
+    /** Writes the archive trailer, if any */
+    abstract void finish() throws IOException;
+
+    @Override
+    public boolean write(TileBatch batch, int index) throws IOException {
+        File tile = batch.getTile(index);
+        byte[] tileContents = Files.readAllBytes(tile.toPath());
+        String tileName = getEntryName(tile);
+        String baseName = tileName.substring(0, tileName.length() - tile.getName().length());
+        baseName += FilenameUtils.getBaseName(tile.getName());
+        ProjectionWriter projection = batch.writer.projection;
+
+        synchronized (this) {
+            addEntry(tileName, tileContents, 0, tileContents.length, false);
+            int start = batch.getWorldFileStart(index);
+            int length = batch.getWorldFileLength(index);
+            addEntry(baseName + ".wld", batch.worldFiles, start, length, true);
+            // archives carry a copy of the projection per tile, whatever the mode
+            if (projection != null)
+                addEntry(baseName + ".prj", projection.wkt, 0, projection.wkt.length, true);
+        }
+        return true;
+    }
+
+    private String getEntryName(File tile) {
+        Path relative = root.relativize(tile.getAbsoluteFile().toPath());
+        return FilenameUtils.separatorsToUnix(relative.toString());
+    }
+
+    @Override
+    public boolean isSidecar() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output == null) return;
+        try {
+            finish();
+        } finally {
+            output.close();
+            output = null;
+        }
+    }
+
+    /** Zip archive, tiles are stored as they are, world and projection files get deflated */
+    static class Zip extends ArchiveSink {
+
+        ZipOutputStream zip;
+
+        Zip(File file) {
+            super(file);
+        }
+
+        @Override
+        void start() {
+            zip = new ZipOutputStream(output);
+            output = zip;
+        }
+
+        @Override
+        void addEntry(String name, byte[] contents, int offset, int length, boolean compress)
+                throws IOException {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(time);
+            if (!compress) {
+                // stored entries need their size and checksum upfront
+                CRC32 crc = new CRC32();
+                crc.update(contents, offset, length);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(length);
+                entry.setCompressedSize(length);
+                entry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(entry);
+            zip.write(contents, offset, length);
+            zip.closeEntry();
+        }
+
+        @Override
+        void finish() throws IOException {
+            zip.finish();
+        }
+    }
+
+    /** POSIX ustar archive, gzipped if the file name ends with .gz or .tgz */
+    static class Tar extends ArchiveSink {
+
+        static final int BLOCK = 512;
+
+        final byte[] header = new byte[BLOCK];
+
+        Tar(File file) {
+            super(file);
+        }
+
+        @Override
+        void start() throws IOException {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".gz") || name.endsWith(".tgz"))
+                output = new GZIPOutputStream(output, 1 << 16);
+        }
+
+        @Override
+        void addEntry(String name, byte[] contents, int offset, int length, boolean compress)
+                throws IOException {
+            writeHeader(name, length);
+            output.write(contents, offset, length);
+            int padding = (BLOCK - length % BLOCK) % BLOCK;
+            output.write(new byte[padding]);
+        }
+
+        private void writeHeader(String name, long size) throws IOException {
+            Arrays.fill(header, (byte) 0);
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            int prefixLength = 0;
+            if (nameBytes.length > 100) {
+                // split at a directory separator, prefix up to 155 bytes and name up to 100
+                prefixLength = nameBytes.length == name.length() ? name.lastIndexOf('/', 155) : -1;
+                if (prefixLength <= 0 || nameBytes.length - prefixLength - 1 > 100)
+                    throw new IOException("Entry name too long for a tar archive: " + name);
+            }
+            if (prefixLength > 0) {
+                put(nameBytes, prefixLength + 1, nameBytes.length - prefixLength - 1, 0);
+                put(nameBytes, 0, prefixLength, 345);
+            } else {
+                put(nameBytes, 0, nameBytes.length, 0);
+            }
+            putOctal(0644, 100, 8);
+            putOctal(0, 108, 8);
+            putOctal(0, 116, 8);
+            putOctal(size, 124, 12);
+            putOctal(time / 1000, 136, 12);
+            header[156] = '0';
+            put("ustar".getBytes(StandardCharsets.US_ASCII), 0, 5, 257);
+            header[263] = '0';
+            header[264] = '0';
+
+            // checksum computed with the checksum field filled with spaces
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long checksum = 0;
+            for (byte b : header) checksum += b & 0xFF;
+            putOctal(checksum, 148, 7);
+            header[155] = ' ';
+            output.write(header);
+        }
+
+        private void put(byte[] source, int offset, int length, int position) {
+            System.arraycopy(source, offset, header, position, length);
+        }
+
+        /** Writes a zero padded, NUL terminated octal number in a field of the given width */
+        private void putOctal(long value, int position, int width) {
+            String octal = Long.toOctalString(value);
+            int digits = width - 1;
+            for (int i = 0; i < digits; i++) {
+                int index = octal.length() - digits + i;
+                header[position + i] = (byte) (index < 0 ? '0' : octal.charAt(index));
+            }
+            header[position + digits] = 0;
+        }
+
+        @Override
+        void finish() throws IOException {
+            // two empty blocks mark the end of the archive
+            output.write(new byte[2 * BLOCK]);
+        }
+    }
+}
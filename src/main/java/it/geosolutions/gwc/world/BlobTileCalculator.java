@@ -19,6 +19,7 @@ package it.geosolutions.gwc.world;
 import java.io.File;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import org.apache.commons.io.FilenameUtils;
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
@@ -58,4 +59,46 @@ public class BlobTileCalculator implements TileCalculator {
             return null;
         }
     }
+
+    @Override
+    public TileDirectory getTileDirectory(Path directory) {
+        return TileDirectory.parseZoomAndColumn(directory);
+    }
+
+    /**
+     * Below the gridset directory there is the format one, then an optional parameters id
+     * directory, and finally the zoom level and column directories
+     */
+    @Override
+    public TileDirectory getChildDirectory(TileDirectory parent, String name) {
+        if (parent.depth == 0) {
+            // format directory
+            return new TileDirectory(
+                    parent.path.resolve(name), TileDirectory.UNKNOWN, TileDirectory.UNKNOWN, 1);
+        }
+        TileDirectory child = TileDirectory.getZoomOrColumn(parent, name);
+        if (child == null && parent.depth == 1) {
+            // parameters id directory
+            return new TileDirectory(
+                    parent.path.resolve(name), TileDirectory.UNKNOWN, TileDirectory.UNKNOWN, 2);
+        }
+        return child;
+    }
+
+    @Override
+    public boolean isTileDirectory(TileDirectory directory) {
+        return directory.x != TileDirectory.UNKNOWN;
+    }
+
+    @Override
+    public boolean getCoordinates(
+            TileDirectory directory, CharSequence fileName, GridSet gridSet, long[] coordinates) {
+        long y = directory.parseRow(fileName);
+        if (y == TileNames.INVALID) return false;
+
+        coordinates[0] = directory.x;
+        coordinates[1] = y;
+        coordinates[2] = directory.z;
+        return true;
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Journal of the cache directories whose world files have been fully generated, one path
+ * (relative to the layer directory) per line. A resumed run loads it and skips the recorded
+ * directories without listing them. Entries are appended as directories complete and flushed to
+ * disk periodically, so a crash loses at most the last few seconds of progress.
+ *
+ * <p>A directory is complete only for the zoom levels and area of the run that recorded it, so
+ * filtered runs record their filters in a {@link #FILTERS_HEADER} first line, and a journal cannot
+ * be resumed with different ones.
+ */
+class CheckpointJournal {
+
+    static final String DEFAULT_NAME = ".worldfiles-journal";
+
+    static final String FILTERS_HEADER = "#filters ";
+
+    static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    final File file;
+
+    final Set<String> completed;
+
+    Writer writer;
+
+    long lastFlush = System.currentTimeMillis();
+
+    private CheckpointJournal(File file, Set<String> completed) throws IOException {
+        this.file = file;
+        this.completed = completed;
+        this.writer =
+                new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens the journal, loading the directories recorded by previous runs, if any. The filters
+     * are the ones of the run, as described by {@link RunOptions#getFilters()}, and must match the
+     * recorded ones.
+     */
+    public static CheckpointJournal open(File file, String filters) throws IOException {
+        Set<String> completed = new HashSet<>();
+        String recorded = null;
+        boolean empty = true;
+        if (file.exists()) {
+            String contents = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+            // a crash might have left a truncated last line, which could match the wrong
+            // directory, drop it from the file too, so that new entries start on a new line
+            int end = contents.lastIndexOf('\n') + 1;
+            if (end < contents.length()) {
+                contents = contents.substring(0, end);
+                try (FileChannel channel = FileChannel.open(file.toPath(), WRITE)) {
+                    channel.truncate(contents.getBytes(StandardCharsets.UTF_8).length);
+                }
+            }
+            String[] lines = contents.split("\n");
+            for (int i = 0; i < lines.length; i++) {
+                if (i == 0 && lines[i].startsWith(FILTERS_HEADER))
+                    recorded = lines[i].substring(FILTERS_HEADER.length());
+                else if (!lines[i].isEmpty()) completed.add(lines[i]);
+            }
+            empty = contents.isEmpty();
+        }
+        if (!empty && !Objects.equals(recorded, filters))
+            throw new IOException(
+                    "The journal "
+                            + file
+                            + " was recorded with different zoom levels or area filters ("
+                            + (recorded == null ? "none" : recorded)
+                            + "), run with the same ones or remove it");
+
+        CheckpointJournal journal = new CheckpointJournal(file, completed);
+        if (empty && filters != null) {
+            journal.writer.write(FILTERS_HEADER + filters + "\n");
+            journal.writer.flush();
+        }
+        return journal;
+    }
+
+    /** Returns the number of directories recorded as completed by previous runs */
+    public int size() {
+        return completed.size();
+    }
+
+    public boolean isCompleted(String path) {
+        return completed.contains(path);
+    }
+
+    /** Records a directory as completed, flushing the journal if enough time has passed */
+    public synchronized void completed(String path) {
+        if (writer == null) return;
+        try {
+            writer.write(path);
+            writer.write('\n');
+            long now = System.currentTimeMillis();
+            if (now - lastFlush > FLUSH_INTERVAL) {
+                writer.flush();
+                lastFlush = now;
+            }
+        } catch (IOException e) {
+            System.err.println(
+                    "Failed to update checkpoint journal " + file + ". Error: " + e.getMessage());
+        }
+    }
+
+    public synchronized void flush() {
+        if (writer == null) return;
+        try {
+            writer.flush();
+            lastFlush = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println(
+                    "Failed to flush checkpoint journal " + file + ". Error: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer == null) return;
+        writer.close();
+        writer = null;
+    }
+
+    /** Closes and removes the journal, to be used once all the directories have been completed */
+    public synchronized void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) throw new IOException("Could not delete " + file);
+    }
+}
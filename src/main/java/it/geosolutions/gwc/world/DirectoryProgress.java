@@ -0,0 +1,86 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the work still outstanding for a cache directory: its own listing, its sub-directories
+ * and the tile batches found in it that have not been written yet. Once all of them are done the
+ * directory is recorded in the {@link CheckpointJournal}, unless something failed along the way,
+ * and the parent directory is notified.
+ */
+class DirectoryProgress {
+
+    final DirectoryProgress parent;
+
+    /**
+     * Path relative to the layer directory (or the cache root, when running several layers), using
+     * "/" as the separator, null for the layer
+     */
+    final String path;
+
+    final CheckpointJournal journal;
+
+    final AtomicInteger pending = new AtomicInteger(1);
+
+    volatile boolean failed;
+
+    /** Creates the progress tracker for the layer directory */
+    DirectoryProgress(CheckpointJournal journal) {
+        this.parent = null;
+        this.path = null;
+        this.journal = journal;
+    }
+
+    private DirectoryProgress(DirectoryProgress parent, String path) {
+        this.parent = parent;
+        this.path = path;
+        this.journal = parent.journal;
+    }
+
+    /**
+     * Creates the progress tracker for a child directory, pending its own listing, or returns
+     * null if a previous run already completed it
+     */
+    DirectoryProgress child(String name) {
+        String childPath = path == null ? name : path + "/" + name;
+        if (journal != null && journal.isCompleted(childPath)) return null;
+
+        acquire();
+        return new DirectoryProgress(this, childPath);
+    }
+
+    void acquire() {
+        pending.incrementAndGet();
+    }
+
+    void release() {
+        if (pending.decrementAndGet() == 0) {
+            if (!failed && journal != null && path != null) journal.completed(path);
+            if (parent != null) {
+                if (failed) parent.failed = true;
+                parent.release();
+            }
+        }
+    }
+
+    /** Marks the directory as failed, it won't be recorded as completed */
+    void fail() {
+        failed = true;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The WKT definitions shipped in the epsg.properties resource, used in place of the GeoTools ones
+ * for the codes listed there. Looked up on demand: the resource is scanned up to the line of the
+ * requested code, and only that line gets parsed. Lookups, successful or not, are cached.
+ */
+class EpsgWkts {
+
+    static final String RESOURCE = "/epsg.properties";
+
+    private static final Map<Integer, Optional<String>> CACHE = new ConcurrentHashMap<>();
+
+    private EpsgWkts() {}
+
+    /** Returns the WKT of the given EPSG code, or null if the resource does not have it */
+    static String get(int srid) {
+        return CACHE.computeIfAbsent(srid, EpsgWkts::lookup).orElse(null);
+    }
+
+    private static Optional<String> lookup(int srid) {
+        String key = String.valueOf(srid);
+        // properties files are ISO-8859-1 encoded
+        try (InputStream is = EpsgWkts.class.getResourceAsStream(RESOURCE);
+                BufferedReader reader =
+                        new BufferedReader(
+                                new InputStreamReader(is, StandardCharsets.ISO_8859_1))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isKey(line, key)) continue;
+
+                Properties properties = new Properties();
+                properties.load(new StringReader(line));
+                return Optional.ofNullable(properties.getProperty(key));
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Checks if the line starts with the key, followed by a key/value separator */
+    private static boolean isKey(String line, String key) {
+        if (!line.startsWith(key) || line.length() == key.length()) return false;
+        char separator = line.charAt(key.length());
+        return separator == '=' || separator == ':' || Character.isWhitespace(separator);
+    }
+}
@@ -17,9 +17,9 @@
 package it.geosolutions.gwc.world;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.StringJoiner;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
@@ -68,18 +68,96 @@ public class GWCTileCalculator implements TileCalculator {
      * directory in the middle is used to spread the files)
      */
     public long[] getCoordinates(File tileFile, GridSet gridSet) {
-        String[] parts = FilenameUtils.getBaseName(tileFile.getName()).split("_");
-        if (parts.length != 2) return null;
-        long x = Long.valueOf(parts[0]);
-        long y = Long.valueOf(parts[1]);
+        File parent = tileFile.getParentFile();
+        if (parent == null) return null;
+
+        long[] coordinates = new long[3];
+        TileDirectory directory = getTileDirectory(parent.toPath());
+        if (!getCoordinates(directory, tileFile.getName(), gridSet, coordinates)) return null;
+        return coordinates;
+    }
+
+    /** The zoom level is parsed once, out of the name of the gridset directory */
+    @Override
+    public TileDirectory getTileDirectory(Path directory) {
+        Path gridsetDirectory = directory.getParent();
+        int z = TileDirectory.UNKNOWN;
+        if (gridsetDirectory != null && gridsetDirectory.getFileName() != null)
+            z = getZoomLevel(gridsetDirectory.getFileName().toString());
+        return new TileDirectory(directory, z, TileDirectory.UNKNOWN, 1);
+    }
+
+    @Override
+    public TileDirectory getGridsetDirectory(Path gridsetDirectory) {
+        int z = TileDirectory.UNKNOWN;
+        if (gridsetDirectory.getFileName() != null)
+            z = getZoomLevel(gridsetDirectory.getFileName().toString());
+        return new TileDirectory(gridsetDirectory, z, TileDirectory.UNKNOWN, 0);
+    }
+
+    /** The gridset directory contains the directories spreading the tiles, any name goes */
+    @Override
+    public TileDirectory getChildDirectory(TileDirectory parent, String name) {
+        if (parent.depth != 0 || parent.z == TileDirectory.UNKNOWN) return null;
+        return new TileDirectory(parent.path.resolve(name), parent.z, TileDirectory.UNKNOWN, 1);
+    }
+
+    @Override
+    public boolean isTileDirectory(TileDirectory directory) {
+        return directory.depth == 1 && directory.z != TileDirectory.UNKNOWN;
+    }
+
+    /**
+     * The directories spreading the tiles cover square blocks of a level, with a side of 2 <<
+     * (z / 2) tiles
+     */
+    @Override
+    public long getEstimatedTiles(TileDirectory directory, GridSet gridSet) {
+        long tiles = TileCalculator.super.getEstimatedTiles(directory, gridSet);
+        if (!isTileDirectory(directory) || directory.z >= 62) return tiles;
+        long side = 2L << (directory.z / 2);
+        return Math.min(tiles, side * side);
+    }
+
+    @Override
+    public boolean getCoordinates(
+            TileDirectory directory, CharSequence fileName, GridSet gridSet, long[] coordinates) {
+        if (directory.z == TileDirectory.UNKNOWN) return false;
+
+        int end = TileNames.getBaseNameEnd(fileName);
+        int separator = TileNames.indexOf(fileName, '_', 0, end);
+        if (separator < 0 || TileNames.indexOf(fileName, '_', separator + 1, end) >= 0)
+            return false;
+        long x = TileNames.parseLong(fileName, 0, separator);
+        long y = TileNames.parseLong(fileName, separator + 1, end);
+        if (x == TileNames.INVALID || y == TileNames.INVALID) return false;
+
+        coordinates[0] = x;
+        coordinates[1] = y;
+        coordinates[2] = directory.z;
+        return true;
+    }
+
+    /**
+     * Parses the zoom level out of a gridset directory name, either "EPSG_code_zoom[_params]" or
+     * "gridset_zoom". Returns {@link TileDirectory#UNKNOWN} if not found.
+     */
+    int getZoomLevel(CharSequence name) {
+        int length = name.length();
+        int first = TileNames.indexOf(name, '_', 0, length);
+        if (first < 0) return TileDirectory.UNKNOWN;
+
         long z;
-        String[] parentParts = tileFile.getParentFile().getParentFile().getName().split("_");
-        if (parentParts.length > 2 && "EPSG".equals(parentParts[0]))
-            z = Long.valueOf(parentParts[2]);
-        else if (parentParts.length == 2 && !"EPSG".equals(parentParts[0]))
-            z = Long.valueOf(parentParts[1]);
-        else return null;
-
-        return new long[] {x, y, z};
+        if (first == 4 && TileNames.startsWith(name, "EPSG")) {
+            int second = TileNames.indexOf(name, '_', first + 1, length);
+            if (second < 0) return TileDirectory.UNKNOWN;
+            int third = TileNames.indexOf(name, '_', second + 1, length);
+            z = TileNames.parseLong(name, second + 1, third < 0 ? length : third);
+        } else {
+            if (TileNames.indexOf(name, '_', first + 1, length) >= 0) return TileDirectory.UNKNOWN;
+            z = TileNames.parseLong(name, first + 1, length);
+        }
+        if (z == TileNames.INVALID || z > Integer.MAX_VALUE) return TileDirectory.UNKNOWN;
+        return (int) z;
     }
 }
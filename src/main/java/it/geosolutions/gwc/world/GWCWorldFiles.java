@@ -17,20 +17,25 @@
 package it.geosolutions.gwc.world;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicLong;
-import org.apache.commons.io.FilenameUtils;
+import java.util.concurrent.TimeUnit;
 import org.geowebcache.config.DefaultGridsets;
 import org.geowebcache.config.GridSetConfiguration;
 import org.geowebcache.config.XMLConfiguration;
-import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.BoundingBox;
 import org.geowebcache.grid.GridSetBroker;
+import org.opengis.referencing.FactoryException;
 
 public class GWCWorldFiles {
 
@@ -38,41 +43,142 @@ public class GWCWorldFiles {
     private static GridSetBroker broker;
     private static TileCalculator calculator = new GWCTileCalculator();
 
-    private static boolean overwrite;
+    private static RunOptions options = new RunOptions();
 
-    private static boolean prj;
-
-    private static AtomicLong counter = new AtomicLong(0);
-
-    public static void main(String[] args) throws ExecutionException, InterruptedException {
+    public static void main(String[] args)
+            throws ExecutionException, InterruptedException, IOException {
         // in case of no arguments, exit and
         if (args.length == 0) {
             printer.print("Tool to generate world file sidecars for tile caches. Usage:\n");
             printer.print(
-                    "java -jar gwc-worldfiles-1.0.jar [-q] [-j threads] [-prj] [-overwrite] [-layout layout] [-config geowebcache.xml] layer_location\n");
+                    "java -jar gwc-worldfiles-1.0.jar [-q] [-j threads] [-walk-threads threads] [-compute-threads threads] [-io-threads threads] [-virtual-threads limit] [-queue-size batches] [-listing-limit entries] [-max-in-flight tiles] [-walk-queue-size directories] [-stat mode] [-index file] [-archive file] [-dry-run] [-zooms min-max] [-bbox minx,miny,maxx,maxy] [-prj] [-prj-mode mode] [-overwrite[=changed]] [-since timestamp|last] [-newer] [-resume] [-journal file] [-watch] [-poll seconds] [-report seconds] [-stats file] [-layout layout] [-export directory] [-config geowebcache.xml] [-root] [-layers names] layer_location\n");
             printer.print("* -q quiet output");
             printer.print(
                     "* -j number of threads to use (defaults to the number of available cores");
+            printer.print(
+                    "* -walk-threads, -compute-threads, -io-threads number of threads for the directory listing, world file computation and write stages (default to the -j value, -write-threads is an alias of -io-threads)");
+            printer.print(
+                    "* -virtual-threads runs the directory listing and write stages on virtual threads (Java 21 or later), with at most the given number of concurrent file system operations per stage. Useful on network file systems, where each operation waits for a round trip");
+            printer.print(
+                    "* -queue-size number of tile batches queued between stages before the upstream one waits (defaults to 64)");
+            printer.print(
+                    "* -listing-limit number of entries of a tile directory held in memory to match tiles and existing world files (defaults to 65536). Larger directories are streamed, checking the world files tile by tile");
+            printer.print(
+                    "* -max-in-flight caps the number of tiles listed but not written yet, keeping memory usage flat regardless of the directory sizes (defaults to no cap besides the -queue-size one)");
+            printer.print(
+                    "* -walk-queue-size number of directories waiting to be listed, beyond it the listing threads walk the new directories depth first themselves (defaults to 1024)");
+            printer.print(
+                    "* -stat tells when the type of directory entries gets checked with a stat call: always, ambiguous (default, only when it cannot be told by the name and the layout) or never (fastest on network file systems, for caches containing only tiles)");
+            printer.print(
+                    "* -index writes a single indexed binary file with the tile coordinates and world file parameters, instead of a world file per tile. The index is rebuilt from all the tiles at each run");
+            printer.print(
+                    "* -archive bundles the tiles along with their world files (and projection files, with -prj) in a .zip, .tar, .tar.gz or .tgz archive, instead of writing the world files in the cache. Combine with -zooms and -bbox to bundle a subset of the cache");
+            printer.print(
+                    "* -dry-run computes the world files without writing them, reporting how many would be created");
+            printer.print(
+                    "* -zooms restricts the world files to a zoom level, or a range of zoom levels, e.g. 10-16");
+            printer.print(
+                    "* -bbox restricts the world files to the tiles intersecting the bounding box, expressed in the CRS of each gridset. Whole directories outside of it are skipped");
             printer.print("* -prj add a projection file (.prj) along with the world file");
+            printer.print(
+                    "* -prj-mode can be copy (default, a .prj per tile), link (a .prj per tile, hard linked to a single one per gridset) or zoom (a single .prj per zoom level directory). Implies -prj");
             printer.print("* -overwrite activates overwriting existing world files");
-            printer.print("* -layout can be gwc (default), xyz, tms, blob");
+            printer.print(
+                    "* -overwrite=changed overwrites only the world and projection files whose"
+                            + " contents change, leaving the others untouched");
+            printer.print(
+                    "* -since only processes the tiles modified after the timestamp, given as milliseconds since the epoch, or in ISO format (e.g. 2024-05-01, 2024-05-01T18:00:00 or 2024-05-01T16:00:00Z). Using last picks the start time of the last complete -since last run, stored in "
+                            + Watermark.DEFAULT_NAME
+                            + " in the layer folder");
+            printer.print(
+                    "* -newer also rewrites the existing world files older than their tile");
+            printer.print(
+                    "* -resume records the completed directories in a journal, and skips the ones completed by a previous interrupted run");
+            printer.print(
+                    "* -journal is the location of the -resume journal (defaults to "
+                            + CheckpointJournal.DEFAULT_NAME
+                            + " in the layer folder)");
+            printer.print(
+                    "* -watch keeps running after the first run, writing the world files of the tiles added to the cache as they appear. Stop it with Ctrl-C");
+            printer.print(
+                    "* -poll makes -watch scan for tiles modified since the previous scan at the given interval in seconds, instead of relying on file system events (e.g., for network file systems updated by other hosts). Implies -watch");
+            printer.print(
+                    "* -report is the interval between progress reports, in seconds (defaults to 10, 0 disables them)");
+            printer.print(
+                    "* -stats writes a JSON summary of the run counters, latencies and throughput to the given file");
+            printer.print("* -layout can be gwc (default), xyz, tms, blob, mbtiles");
+            printer.print(
+                    "* -export is the directory the tiles of an mbtiles layout get exported to, in the tms layout and along with their world files. The layer_location is the .mbtiles file in this case");
             printer.print("* -config is the location of the GeoWebCache configuration file");
+            printer.print(
+                    "* -root makes layer_location a cache root, whose sub-folders are all processed as layers in a single run, sharing threads and gridsets. Journal, watermark and archive entries are relative to the cache root");
+            printer.print(
+                    "* -layers restricts -root to a comma separated list of layer folder names. Implies -root");
             printer.print(
                     "* layer_location is the path to the layer folder (normally has gridset specific subfolders as direct children). Must be last command line parameter");
             System.exit(-1);
         }
 
         File configuration = null;
+        boolean mbtiles = false;
+        boolean root = false;
+        String layerNames = null;
+        File export = null;
+        String since = null;
         File cache;
-        int parallelism = Runtime.getRuntime().availableProcessors();
-
         for (int i = 0; i < args.length - 1; i++) {
             String curr = args[i];
-            if (curr.equals("-layout")) calculator = getTileCalculator(args[++i]);
-            else if (curr.equals("-config")) configuration = new File(args[++i]);
-            else if (curr.equals("-j")) parallelism = Integer.parseInt(args[++i]);
-            else if (curr.equals("-prj")) prj = true;
-            else if (curr.equals("-overwrite")) overwrite = true;
+            if (curr.equals("-layout")) {
+                String layout = args[++i];
+                if ("mbtiles".equals(layout)) mbtiles = true;
+                else calculator = getTileCalculator(layout);
+            } else if (curr.equals("-export")) export = new File(args[++i]);
+            else if (curr.equals("-root")) root = true;
+            else if (curr.equals("-layers")) {
+                root = true;
+                layerNames = args[++i];
+            } else if (curr.equals("-config")) configuration = new File(args[++i]);
+            else if (curr.equals("-j")) options.parallelism = Integer.parseInt(args[++i]);
+            else if (curr.equals("-walk-threads"))
+                options.walkThreads = Integer.parseInt(args[++i]);
+            else if (curr.equals("-compute-threads"))
+                options.computeThreads = Integer.parseInt(args[++i]);
+            else if (curr.equals("-io-threads") || curr.equals("-write-threads"))
+                options.ioThreads = Integer.parseInt(args[++i]);
+            else if (curr.equals("-virtual-threads"))
+                options.virtualThreads = Integer.parseInt(args[++i]);
+            else if (curr.equals("-queue-size")) options.queueSize = Integer.parseInt(args[++i]);
+            else if (curr.equals("-walk-queue-size"))
+                options.walkQueueSize = Integer.parseInt(args[++i]);
+            else if (curr.equals("-listing-limit"))
+                options.listingLimit = Integer.parseInt(args[++i]);
+            else if (curr.equals("-max-in-flight"))
+                options.maxInFlight = Integer.parseInt(args[++i]);
+            else if (curr.equals("-stat")) options.statMode = getStatMode(args[++i]);
+            else if (curr.equals("-index")) options.index = new File(args[++i]);
+            else if (curr.equals("-archive")) options.archive = new File(args[++i]);
+            else if (curr.equals("-dry-run")) options.dryRun = true;
+            else if (curr.equals("-zooms")) setZoomLevels(args[++i]);
+            else if (curr.equals("-bbox")) options.bbox = getBoundingBox(args[++i]);
+            else if (curr.equals("-prj")) options.prj = true;
+            else if (curr.equals("-prj-mode")) {
+                options.prj = true;
+                options.prjMode = getPrjMode(args[++i]);
+            } else if (curr.equals("-overwrite")) options.overwrite = true;
+            else if (curr.equals("-overwrite=changed")) {
+                options.overwrite = true;
+                options.overwriteChanged = true;
+            } else if (curr.equals("-since")) since = args[++i];
+            else if (curr.equals("-newer")) options.newer = true;
+            else if (curr.equals("-resume")) options.resume = true;
+            else if (curr.equals("-journal")) options.journal = new File(args[++i]);
+            else if (curr.equals("-watch")) options.watch = true;
+            else if (curr.equals("-poll")) {
+                options.watch = true;
+                options.pollInterval = Integer.parseInt(args[++i]);
+            } else if (curr.equals("-report"))
+                options.reportInterval = Integer.parseInt(args[++i]);
+            else if (curr.equals("-stats")) options.stats = new File(args[++i]);
             else if (curr.equals("-q")) printer = Printer.QUIET;
             else {
                 printer.err("Unrecognized parameter: " + curr);
@@ -86,67 +192,208 @@ public class GWCWorldFiles {
             System.exit(-3);
         }
 
-        if (cache == null || !cache.isDirectory()) {
+        if (mbtiles) {
+            if (!cache.isFile()) {
+                printer.err("MBTiles file not found: " + cache);
+                System.exit(-4);
+            }
+            if (export == null) {
+                printer.err("The mbtiles layout requires an -export directory");
+                System.exit(-5);
+            }
+            if (options.index != null
+                    || options.archive != null
+                    || options.resume
+                    || options.watch
+                    || options.newer
+                    || since != null) {
+                printer.err(
+                        "-layout mbtiles cannot be combined with -index, -archive, -resume, "
+                                + "-watch, -since and -newer");
+                System.exit(-5);
+            }
+        } else if (cache == null || !cache.isDirectory()) {
             printer.err("Layer cache root not found, or found but not a directory: " + cache);
             System.exit(-4);
         }
 
-        if (parallelism < 1) {
+        if (options.parallelism < 1) {
             printer.err("Parallelism in -j must be at least 1");
             System.exit(-5);
         }
 
+        if (options.walkThreads < 0
+                || options.computeThreads < 0
+                || options.ioThreads < 0
+                || options.virtualThreads < 0
+                || options.reportInterval < 0
+                || options.pollInterval < 0
+                || options.queueSize < 1
+                || options.listingLimit < 1
+                || options.walkQueueSize < 1
+                || options.maxInFlight < 0) {
+            printer.err(
+                    "Stage threads, queue sizes, listing limit, in flight tiles and report "
+                            + "interval must be positive numbers");
+            System.exit(-5);
+        }
+
+        if (options.index != null
+                && (options.resume || options.watch || options.newer || since != null)) {
+            printer.err("-index cannot be combined with -resume, -watch, -since and -newer");
+            System.exit(-5);
+        }
+        if (options.archive != null) {
+            if (ArchiveSink.forFile(options.archive) == null) {
+                printer.err("-archive must be a .zip, .tar, .tar.gz or .tgz file");
+                System.exit(-5);
+            }
+            if (options.index != null || options.resume || options.watch || options.dryRun) {
+                printer.err(
+                        "-archive cannot be combined with -index, -resume, -watch and -dry-run");
+                System.exit(-5);
+            }
+        }
+        if (options.dryRun && (options.index != null || options.resume || options.watch)) {
+            printer.err("-dry-run cannot be combined with -index, -resume and -watch");
+            System.exit(-5);
+        }
+        if (options.index != null && options.prj)
+            printer.err("Projection files are not written along with an -index, ignoring -prj");
+
+        List<File> layers = null;
+        if (root) {
+            if (mbtiles || options.index != null || options.watch) {
+                printer.err("-root cannot be combined with -layout mbtiles, -index and -watch");
+                System.exit(-5);
+            }
+            layers = getLayers(cache, layerNames);
+            printer.print("Processing " + layers.size() + " layers in " + cache);
+        }
+
+        if ("last".equals(since)) {
+            options.watermark = new File(cache, Watermark.DEFAULT_NAME);
+            options.since = Watermark.read(options.watermark);
+            if (options.since < 0) printer.print("No valid watermark found, processing all tiles");
+        } else if (since != null) {
+            options.since = getTimestamp(since);
+        }
+        if (options.since >= 0)
+            printer.print("Processing tiles modified after " + Instant.ofEpochMilli(options.since));
+
         // build the machinery to compute the world files
         broker = getGridsetBroker(configuration);
 
-        // start the calculation
-        printer.print("Computing world files with parallelism: " + parallelism);
-        ForkJoinPool customPool = new ForkJoinPool(parallelism);
-        customPool.submit(() -> computeWorldFilesAllGridsets(cache)).get();
-    }
+        // export the tiles from a single file cache
+        if (mbtiles) {
+            printer.print("Exporting tiles and world files to " + export);
+            long start = System.currentTimeMillis();
+            MBTilesExporter exporter = new MBTilesExporter(broker, options, printer);
+            long count = 0;
+            try {
+                count = exporter.run(cache, export);
+            } catch (SQLException | FactoryException e) {
+                printer.err("Failed to export " + cache + ". Error: " + e.getMessage());
+                System.exit(-6);
+            }
+            printer.print(
+                    "Exported "
+                            + count
+                            + " tiles with world files in "
+                            + (System.currentTimeMillis() - start) / 1000d
+                            + " sec");
+            printer.print(exporter.getMetrics().getStageSummary());
+            if (options.stats != null) exporter.getMetrics().writeJson(options.stats);
+            return;
+        }
+
+        // keep running and follow the cache changes
+        if (options.watch) {
+            if (options.resume) printer.err("-resume is not supported by -watch, ignoring it");
+            printer.print("Keeping world files current, press Ctrl-C to stop");
+            WorldFilesWatcher watcher = new WorldFilesWatcher(calculator, broker, options, printer);
+            // on Ctrl-C, write the world files of the tiles collected so far
+            Runtime.getRuntime()
+                    .addShutdownHook(
+                            new Thread(
+                                    () -> {
+                                        try {
+                                            watcher.stopAndFlush(10, TimeUnit.SECONDS);
+                                        } catch (InterruptedException e) {
+                                            Thread.currentThread().interrupt();
+                                        }
+                                    }));
+            watcher.run(cache);
+            return;
+        }
+
+        // open the journal of a resumable run
+        CheckpointJournal journal = null;
+        if (options.resume) {
+            File journalFile = options.journal;
+            if (journalFile == null) journalFile = new File(cache, CheckpointJournal.DEFAULT_NAME);
+            try {
+                journal = CheckpointJournal.open(journalFile, options.getFilters());
+            } catch (IOException e) {
+                printer.err("Cannot resume. Error: " + e.getMessage());
+                System.exit(-5);
+            }
+            if (journal.size() > 0)
+                printer.print(
+                        "Resuming, " + journal.size() + " directories completed by previous runs");
+            // make sure progress is not lost on Ctrl-C
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::flush));
+        }
 
-    private static void computeWorldFilesAllGridsets(File cache) {
+        // start the calculation
+        printer.print("Computing world files with parallelism: " + options.parallelism);
         long start = System.currentTimeMillis();
-        Arrays.stream(cache.listFiles(f -> f.isDirectory()))
-                .parallel()
-                .forEach(f -> computeWorldFiles(f));
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(calculator, broker, options, printer, journal);
+        long count = pipeline.run(cache, layers);
         printer.print("\nDone!");
         printer.print(
-                "Created "
-                        + counter
+                (options.dryRun ? "Would create " : "Created ")
+                        + count
                         + " world files in "
                         + (System.currentTimeMillis() - start) / 1000d
                         + " sec");
-    }
-
-    private static void computeWorldFiles(File gridsetDirectory) {
-        GridSet gridSet = calculator.getGridset(gridsetDirectory, broker);
-        if (gridSet == null) printer.err("Unknown gridset, skipping directory " + gridsetDirectory);
+        printer.print(pipeline.getMetrics().getStageSummary());
+        if (options.stats != null) pipeline.getMetrics().writeJson(options.stats);
 
-        printer.print("Creating world files in " + gridsetDirectory);
+        if (options.watermark != null && !options.dryRun && pipeline.isComplete())
+            Watermark.write(options.watermark, start);
 
-        try {
-            WorldFileWriter writer = new WorldFileWriter(gridSet, calculator, overwrite, prj);
-            Files.walk(gridsetDirectory.toPath(), calculator.getMaximumDepth())
-                    .parallel()
-                    .filter(GWCWorldFiles::isTileFile)
-                    .forEach(
-                            p -> {
-                                if (writer.write(p.toFile())) {
-                                    long count = counter.incrementAndGet();
-                                    if (count % 5000 == 0)
-                                        printer.print("World files generated: " + count);
-                                }
-                            });
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        if (journal != null) {
+            if (pipeline.isComplete()) {
+                journal.delete();
+            } else {
+                journal.close();
+                printer.print(
+                        "Some directories could not be completed, run again with -resume to retry them");
+            }
         }
     }
 
-    private static boolean isTileFile(Path p) {
-        if (!Files.isRegularFile(p)) return false;
-        String extension = FilenameUtils.getExtension(p.getFileName().toString());
-        return TileExtensions.contains(extension);
+    /** Lists the layer folders in the cache root, restricted to the given names if not null */
+    private static List<File> getLayers(File root, String names) {
+        List<File> layers = new ArrayList<>();
+        if (names == null) {
+            File[] directories = root.listFiles(File::isDirectory);
+            if (directories != null) layers.addAll(Arrays.asList(directories));
+            Collections.sort(layers);
+            return layers;
+        }
+
+        for (String name : names.split(",")) {
+            File layer = new File(root, name.trim());
+            if (!layer.isDirectory()) {
+                printer.err("Layer folder not found: " + layer);
+                System.exit(-4);
+            }
+            layers.add(layer);
+        }
+        return layers;
     }
 
     private static TileCalculator getTileCalculator(String layout) {
@@ -160,6 +407,71 @@ public class GWCWorldFiles {
         return null;
     }
 
+    private static PrjMode getPrjMode(String mode) {
+        PrjMode result = PrjMode.fromString(mode);
+        if (result == null) {
+            printer.err("Unknown prj mode: " + mode);
+            System.exit(-2);
+        }
+        return result;
+    }
+
+    private static void setZoomLevels(String zooms) {
+        try {
+            int separator = zooms.indexOf('-');
+            if (separator < 0) {
+                options.minZoom = options.maxZoom = Integer.parseInt(zooms);
+            } else {
+                options.minZoom = Integer.parseInt(zooms.substring(0, separator));
+                options.maxZoom = Integer.parseInt(zooms.substring(separator + 1));
+            }
+        } catch (NumberFormatException e) {
+            options.minZoom = -1;
+        }
+        if (options.minZoom < 0 || options.maxZoom < options.minZoom) {
+            printer.err("Invalid zoom levels, expected a level or a min-max range: " + zooms);
+            System.exit(-2);
+        }
+    }
+
+    private static long getTimestamp(String timestamp) {
+        try {
+            if (timestamp.chars().allMatch(Character::isDigit)) return Long.parseLong(timestamp);
+            if (timestamp.endsWith("Z")) return Instant.parse(timestamp).toEpochMilli();
+            ZoneId zone = ZoneId.systemDefault();
+            if (timestamp.contains("T"))
+                return LocalDateTime.parse(timestamp).atZone(zone).toInstant().toEpochMilli();
+            return LocalDate.parse(timestamp).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            printer.err("Invalid timestamp: " + timestamp);
+            System.exit(-2);
+            return -1;
+        }
+    }
+
+    private static BoundingBox getBoundingBox(String bbox) {
+        BoundingBox result = null;
+        try {
+            if (bbox.split(",").length == 4) result = new BoundingBox(bbox);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (result == null || !result.isSane()) {
+            printer.err("Invalid bounding box, expected minx,miny,maxx,maxy: " + bbox);
+            System.exit(-2);
+        }
+        return result;
+    }
+
+    private static StatMode getStatMode(String mode) {
+        StatMode result = StatMode.fromString(mode);
+        if (result == null) {
+            printer.err("Unknown stat mode: " + mode);
+            System.exit(-2);
+        }
+        return result;
+    }
+
     private static GridSetBroker getGridsetBroker(File configuration) {
         List<GridSetConfiguration> configurations = new ArrayList<>();
         configurations.add(new DefaultGridsets(true, true));
@@ -0,0 +1,109 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.geowebcache.grid.GridSet;
+import org.opengis.referencing.FactoryException;
+
+/**
+ * Resolved gridsets, shared by all the directories of a run. With the GWC layout each gridset
+ * directory is a combination of gridset, zoom level and parameters, and a layer can have hundreds
+ * of them: the per zoom level affine parameters, the tile filter and the projection WKT are
+ * computed once per gridset and reused by all their writers. Thread safe.
+ */
+class GridSetRegistry {
+
+    /** The resolved state of a gridset */
+    static class Entry {
+
+        final GridSet gridSet;
+
+        final WorldFileModel model;
+
+        /** Null if the options do not filter the tiles */
+        final TileFilter filter;
+
+        Entry(GridSet gridSet, WorldFileModel model, TileFilter filter) {
+            this.gridSet = gridSet;
+            this.model = model;
+            this.filter = filter;
+        }
+    }
+
+    final RunOptions options;
+
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** WKT encoded in UTF-8, by EPSG code */
+    final Map<Integer, byte[]> wkts = new ConcurrentHashMap<>();
+
+    GridSetRegistry(RunOptions options) {
+        this.options = options;
+    }
+
+    /** Returns the resolved state of the gridset, computing it on first access */
+    Entry get(GridSet gridSet) {
+        return entries.computeIfAbsent(
+                gridSet.getName(),
+                name ->
+                        new Entry(
+                                gridSet,
+                                new WorldFileModel(gridSet),
+                                getFilter(gridSet, options)));
+    }
+
+    /** Returns the WKT of the given EPSG code, decoding the CRS only the first time */
+    byte[] getWkt(int srid) throws FactoryException {
+        byte[] wkt = wkts.get(srid);
+        if (wkt == null) {
+            // decoding can fail, cannot go through computeIfAbsent
+            wkt = WorldFileWriter.getWkt(srid);
+            wkts.putIfAbsent(srid, wkt);
+        }
+        return wkt;
+    }
+
+    /** Builds the writer for the tiles of a gridset directory, as configured by the options */
+    WorldFileWriter newWriter(TileCalculator calculator, GridSet gridSet, File gridsetDirectory)
+            throws FactoryException {
+        Entry entry = get(gridSet);
+        PrjMode prjMode = options.prj ? options.prjMode : null;
+        byte[] wkt = prjMode == null ? null : getWkt(gridSet.getSrs().getNumber());
+        WorldFileWriter writer =
+                new WorldFileWriter(
+                        gridSet,
+                        entry.model,
+                        calculator,
+                        options.overwrite,
+                        prjMode,
+                        wkt,
+                        gridsetDirectory);
+        writer.filter = entry.filter;
+        writer.onlyChanged = options.overwriteChanged;
+        if (writer.projection != null) writer.projection.onlyChanged = options.overwriteChanged;
+        return writer;
+    }
+
+    /** Returns the filter for the tiles of the gridset, or null if the options do not filter */
+    static TileFilter getFilter(GridSet gridSet, RunOptions options) {
+        if (!options.isFiltered()) return null;
+        return new TileFilter(gridSet, options.minZoom, options.maxZoom, options.bbox);
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the tiles as a single packed x/y key each, and writes them all in a single {@link
+ * WorldFileIndex} file when closed. The world file parameters are not kept around, they are a
+ * function of the tile coordinates and get computed again while writing.
+ *
+ * <p>Keys are buffered per zoom level, every {@link #RUN_SIZE} keys the buffer gets sorted and
+ * appended to a temporary file as a sorted run. When closing, the runs of each level are merged,
+ * so that memory stays bounded whatever the number of tiles.
+ */
+class IndexSink implements WorldFileSink {
+
+    /** Size of the buffer used to write the index */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /** Number of keys buffered per zoom level before spilling a sorted run, 8MB */
+    static final int RUN_SIZE = 1 << 20;
+
+    /** Size of the buffer used to read back each run while merging */
+    static final int RUN_BUFFER_SIZE = 1 << 13;
+
+    /** The tile keys of a zoom level, sorted runs on disk plus a buffer in no particular order */
+    class Keys {
+        long[] keys = new long[Math.min(1024, runSize)];
+
+        int size;
+
+        /** The temporary file holding the sorted runs, null until the first one is spilled */
+        FileChannel runs;
+
+        /** End offset of each run in {@link #runs} */
+        long[] runEnds = new long[16];
+
+        int runCount;
+
+        /** Number of distinct keys, known once merged */
+        long count;
+
+        /** Guards the runs file, so that full buffers can be spilled while others fill up */
+        final Object runsLock = new Object();
+
+        void add(long key) throws IOException {
+            long[] full;
+            synchronized (this) {
+                if (size == keys.length && size < runSize)
+                    keys = Arrays.copyOf(keys, Math.min(keys.length * 2, runSize));
+                if (size < keys.length) {
+                    keys[size++] = key;
+                    return;
+                }
+                // swap in a fresh buffer, the full one is sorted and written outside of the lock
+                full = keys;
+                keys = new long[runSize];
+                keys[0] = key;
+                size = 1;
+            }
+            spill(full);
+        }
+
+        /**
+         * Sorts the given keys and removes the duplicates in place, returns the number of distinct
+         * keys
+         */
+        private int sort(long[] keys, int size) {
+            Arrays.sort(keys, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || keys[i] != keys[distinct - 1]) keys[distinct++] = keys[i];
+            }
+            return distinct;
+        }
+
+        /** Appends a full buffer of keys to the runs file, as a sorted run */
+        private void spill(long[] keys) throws IOException {
+            int size = sort(keys, keys.length);
+            ByteBuffer buffer = ByteBuffer.allocate(size * 8);
+            buffer.asLongBuffer().put(keys, 0, size);
+            synchronized (runsLock) {
+                if (runs == null) {
+                    Path parent = file.getAbsoluteFile().getParentFile().toPath();
+                    Path path = Files.createTempFile(parent, file.getName() + ".", ".run");
+                    runs =
+                            FileChannel.open(
+                                    path,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                long end = runs.size();
+                while (buffer.hasRemaining()) end += runs.write(buffer, end);
+                if (runCount == runEnds.length) runEnds = Arrays.copyOf(runEnds, runCount * 2);
+                runEnds[runCount++] = end;
+            }
+        }
+
+        /**
+         * Merges the runs and the buffered keys, passing the distinct keys in order, returns their
+         * number
+         */
+        long merge(KeyConsumer consumer) throws IOException {
+            synchronized (this) {
+                synchronized (runsLock) {
+                    return mergeRuns(consumer);
+                }
+            }
+        }
+
+        private long mergeRuns(KeyConsumer consumer) throws IOException {
+            size = sort(keys, size);
+            PriorityQueue<Run> queue = new PriorityQueue<>();
+            long start = 0;
+            for (int i = 0; i < runCount; i++) {
+                Run run = new Run(runs, start, runEnds[i]);
+                if (run.next()) queue.add(run);
+                start = runEnds[i];
+            }
+            Run memory = new Run(keys, size);
+            if (memory.next()) queue.add(memory);
+
+            long count = 0;
+            long last = 0;
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                if (count == 0 || run.key != last) {
+                    consumer.accept(run.key);
+                    count++;
+                }
+                last = run.key;
+                if (run.next()) queue.add(run);
+            }
+            return count;
+        }
+
+        void close() throws IOException {
+            synchronized (runsLock) {
+                if (runs != null) runs.close();
+            }
+        }
+    }
+
+    /** Receives the keys of a zoom level while merging */
+    interface KeyConsumer {
+        void accept(long key) throws IOException;
+    }
+
+    /** A sorted run of keys, either in a file region or in memory, read one key at a time */
+    static class Run implements Comparable<Run> {
+        final FileChannel channel;
+
+        final ByteBuffer buffer;
+
+        final long[] keys;
+
+        final long end;
+
+        long position;
+
+        long key;
+
+        Run(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.buffer = ByteBuffer.allocate(RUN_BUFFER_SIZE);
+            this.buffer.flip();
+            this.keys = null;
+        }
+
+        Run(long[] keys, int size) {
+            this.channel = null;
+            this.buffer = null;
+            this.keys = keys;
+            this.end = size;
+        }
+
+        /** Moves to the next key, returns false if the run is over */
+        boolean next() throws IOException {
+            if (keys != null) {
+                if (position == end) return false;
+                key = keys[(int) position++];
+                return true;
+            }
+            if (!buffer.hasRemaining()) {
+                if (position == end) return false;
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) throw new IOException("Truncated index run");
+                    position += read;
+                }
+                buffer.flip();
+            }
+            key = buffer.getLong();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return Long.compare(key, other.key);
+        }
+    }
+
+    /** The tiles of a gridset, by zoom level */
+    class GridsetTiles {
+        final WorldFileWriter writer;
+
+        final ConcurrentMap<Integer, Keys> levels = new ConcurrentHashMap<>();
+
+        GridsetTiles(WorldFileWriter writer) {
+            this.writer = writer;
+        }
+    }
+
+    final File file;
+
+    final int runSize;
+
+    final ConcurrentMap<String, GridsetTiles> gridsets = new ConcurrentHashMap<>();
+
+    IndexSink(File file) {
+        this(file, RUN_SIZE);
+    }
+
+    IndexSink(File file, int runSize) {
+        this.file = file;
+        this.runSize = runSize;
+    }
+
+    /** Packs the x and y tile coordinates in a single key, sorting by x and then y */
+    static long getKey(long x, long y) {
+        return (x << 32) | y;
+    }
+
+    @Override
+    public boolean write(TileBatch batch, int index) throws IOException {
+        long x = batch.coordinates[index * 3];
+        long y = batch.coordinates[index * 3 + 1];
+        int z = (int) batch.coordinates[index * 3 + 2];
+        if (x < 0 || x > Integer.MAX_VALUE || y < 0 || y > Integer.MAX_VALUE)
+            throw new IOException("Tile coordinates out of the index range: " + x + ", " + y);
+
+        String gridset = batch.writer.gridSet.getName();
+        gridsets.computeIfAbsent(gridset, k -> new GridsetTiles(batch.writer))
+                .levels
+                .computeIfAbsent(z, k -> new Keys())
+                .add(getKey(x, y));
+        return true;
+    }
+
+    @Override
+    public boolean isSidecar() {
+        return false;
+    }
+
+    /**
+     * Writes the index, to a temporary file first, that replaces the target one when complete.
+     * The records go first, after room left for the header, as the number of distinct tiles of
+     * each level is known only once its runs are merged.
+     */
+    @Override
+    public void close() throws IOException {
+        Map<String, GridsetTiles> sorted = new TreeMap<>(gridsets);
+        long headerSize = WorldFileIndex.MAGIC.length + 4;
+        for (Map.Entry<String, GridsetTiles> entry : sorted.entrySet()) {
+            headerSize += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 8;
+            headerSize += 20 * entry.getValue().levels.size();
+        }
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel =
+                    FileChannel.open(
+                            temp,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+                // records, sorted by gridset and zoom level, counting the distinct tiles
+                channel.position(headerSize);
+                double[] parameters = new double[6];
+                for (GridsetTiles tiles : sorted.values()) {
+                    WorldFileModel model = tiles.writer.model;
+                    for (Map.Entry<Integer, Keys> level : new TreeMap<>(tiles.levels).entrySet()) {
+                        int z = level.getKey();
+                        Keys keys = level.getValue();
+                        keys.count =
+                                keys.merge(
+                                        key -> {
+                                            long x = key >>> 32;
+                                            long y = key & 0xFFFFFFFFL;
+                                            model.getParameters(x, y, z, parameters);
+                                            ensureRemaining(
+                                                    channel, buffer, WorldFileIndex.RECORD_SIZE);
+                                            buffer.putInt((int) x);
+                                            buffer.putInt((int) y);
+                                            for (double p : parameters) buffer.putDouble(p);
+                                        });
+                    }
+                }
+                flush(channel, buffer);
+
+                // header, with the records offsets
+                channel.position(0);
+                buffer.put(WorldFileIndex.MAGIC);
+                buffer.putInt(sorted.size());
+                long offset = headerSize;
+                for (Map.Entry<String, GridsetTiles> entry : sorted.entrySet()) {
+                    byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    Map<Integer, Keys> levels = new TreeMap<>(entry.getValue().levels);
+                    ensureRemaining(channel, buffer, 2 + name.length + 8 + 20 * levels.size());
+                    buffer.putShort((short) name.length);
+                    buffer.put(name);
+                    buffer.putInt(entry.getValue().writer.gridSet.getSrs().getNumber());
+                    buffer.putInt(levels.size());
+                    for (Map.Entry<Integer, Keys> level : levels.entrySet()) {
+                        long count = level.getValue().count;
+                        buffer.putInt(level.getKey());
+                        buffer.putLong(count);
+                        buffer.putLong(offset);
+                        offset += count * WorldFileIndex.RECORD_SIZE;
+                    }
+                }
+                flush(channel, buffer);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            // no partial index left behind
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            for (GridsetTiles tiles : gridsets.values()) {
+                for (Keys keys : tiles.levels.values()) keys.close();
+            }
+        }
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int required)
+            throws IOException {
+        if (buffer.remaining() < required) flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.opengis.referencing.FactoryException;
+
+/**
+ * Exports the tiles of an MBTiles file into a TMS layout directory, along with their world files,
+ * in a single pass. The tiles table is streamed with a cursor and handed over in batches to the
+ * write threads, so that there is no need for a separate extraction step reading the tiles back.
+ *
+ * <p>MBTiles are in the spherical mercator gridset, with rows counted from the bottom, as the GWC
+ * internal coordinates. The tiles end up in a directory named after the gridset, below the target
+ * one, and the format comes from the metadata table.
+ */
+class MBTilesExporter {
+
+    /** Marker telling the write threads there are no more rows */
+    static final List<Tile> END = new ArrayList<>();
+
+    /** A tiles table row */
+    static class Tile {
+
+        final long[] coordinates;
+
+        final byte[] data;
+
+        Tile(long x, long y, int z, byte[] data) {
+            this.coordinates = new long[] {x, y, z};
+            this.data = data;
+        }
+    }
+
+    final GridSetBroker broker;
+
+    final RunOptions options;
+
+    final Printer printer;
+
+    final RunMetrics metrics = new RunMetrics();
+
+    /** Column directories known to exist */
+    final Set<File> directories = ConcurrentHashMap.newKeySet();
+
+    MBTilesExporter(GridSetBroker broker, RunOptions options, Printer printer) {
+        this.broker = broker;
+        this.options = options;
+        this.printer = printer;
+    }
+
+    /** Exports the tiles to the target directory, returns the number of world files written */
+    long run(File mbtiles, File target)
+            throws SQLException, IOException, FactoryException, InterruptedException,
+                    ExecutionException {
+        GridSet gridSet = broker.get("EPSG:900913");
+        if (gridSet == null) gridSet = broker.get("WebMercatorQuad");
+        File gridsetDirectory = new File(target, gridSet.getName().replace(':', '_'));
+        if (!gridsetDirectory.isDirectory() && !gridsetDirectory.mkdirs())
+            throw new IOException("Cannot create the export directory " + gridsetDirectory);
+        WorldFileWriter writer =
+                new GridSetRegistry(options)
+                        .newWriter(new TMSTileCalculator(), gridSet, gridsetDirectory);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mbtiles)) {
+            String extension = getExtension(connection);
+            int threads = options.getThreads(options.ioThreads);
+            BlockingQueue<List<Tile>> queue = new ArrayBlockingQueue<>(options.queueSize);
+            ExecutorService writers = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    tasks.add(
+                            writers.submit(
+                                    () -> {
+                                        writeTiles(writer, gridsetDirectory, extension, queue);
+                                        return null;
+                                    }));
+                }
+                readTiles(connection, queue);
+                for (int i = 0; i < threads; i++) queue.put(END);
+                for (Future<?> f : tasks) f.get();
+            } finally {
+                writers.shutdownNow();
+            }
+        }
+
+        return metrics.getCount(RunMetrics.Stage.WRITE);
+    }
+
+    /** The counters and latencies of the export */
+    RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Returns the tile file extension, from the format in the metadata table */
+    static String getExtension(Connection connection) throws SQLException {
+        String sql = "SELECT value FROM metadata WHERE name = 'format'";
+        try (PreparedStatement st = connection.prepareStatement(sql);
+                ResultSet rs = st.executeQuery()) {
+            String format = rs.next() ? rs.getString(1) : null;
+            if (format == null) return "png";
+            if ("pbf".equals(format) || "mvt".equals(format))
+                throw new SQLException("Vector tiles cannot be georeferenced with world files");
+            return format.toLowerCase().replace("image/", "");
+        }
+    }
+
+    /** Streams the tiles table, handing over the rows in batches */
+    void readTiles(Connection connection, BlockingQueue<List<Tile>> queue)
+            throws SQLException, InterruptedException {
+        String sql =
+                "SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles"
+                        + " WHERE zoom_level BETWEEN ? AND ?";
+        try (PreparedStatement st = connection.prepareStatement(sql)) {
+            st.setInt(1, options.minZoom);
+            st.setInt(2, options.maxZoom);
+            st.setFetchSize(options.batchSize);
+            try (ResultSet rs = st.executeQuery()) {
+                List<Tile> batch = new ArrayList<>(options.batchSize);
+                while (rs.next()) {
+                    long start = System.nanoTime();
+                    int z = rs.getInt(1);
+                    batch.add(new Tile(rs.getLong(2), rs.getLong(3), z, rs.getBytes(4)));
+                    metrics.record(RunMetrics.Stage.WALK, System.nanoTime() - start);
+                    if (batch.size() == options.batchSize) {
+                        queue.put(batch);
+                        batch = new ArrayList<>(options.batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) queue.put(batch);
+            }
+        }
+    }
+
+    private void writeTiles(
+            WorldFileWriter writer,
+            File gridsetDirectory,
+            String extension,
+            BlockingQueue<List<Tile>> queue)
+            throws InterruptedException {
+        StringBuilder sb = new StringBuilder(128);
+        while (true) {
+            List<Tile> batch = queue.take();
+            if (batch == END) return;
+
+            for (Tile tile : batch) {
+                long[] coordinates = tile.coordinates;
+                if (writer.filter != null && !writer.filter.accepts(coordinates)) {
+                    metrics.add(RunMetrics.Stage.SKIP, 1);
+                    continue;
+                }
+                int z = (int) coordinates[2];
+                File zoom = new File(gridsetDirectory, String.valueOf(z));
+                File column = new File(zoom, String.valueOf(coordinates[0]));
+                File file = new File(column, coordinates[1] + "." + extension);
+
+                try {
+                    long start = System.nanoTime();
+                    sb.setLength(0);
+                    writer.render(coordinates, sb);
+                    byte[] world = sb.toString().getBytes(StandardCharsets.US_ASCII);
+                    long computed = System.nanoTime();
+                    metrics.record(RunMetrics.Stage.COMPUTE, computed - start);
+                    if (options.dryRun) {
+                        metrics.add(RunMetrics.Stage.WRITE, 1);
+                        metrics.written(writer.gridSet.getName(), z, 1);
+                        continue;
+                    }
+
+                    if (directories.add(column) && !column.isDirectory() && !column.mkdirs())
+                        throw new IOException("Cannot create directory " + column);
+                    if (!writeTile(writer, file, tile.data, world)) {
+                        metrics.add(RunMetrics.Stage.SKIP, 1);
+                        continue;
+                    }
+                    metrics.record(RunMetrics.Stage.WRITE, System.nanoTime() - computed);
+                    metrics.written(writer.gridSet.getName(), z, 1);
+                } catch (IOException | RuntimeException e) {
+                    // keep draining the queue, or the reader would block forever
+                    metrics.add(RunMetrics.Stage.ERROR, 1);
+                    printer.err("Failed to export tile " + file + ". Error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the tile and its sidecars. Existing tiles are left alone unless overwriting, while
+     * the world file follows the writer rules, so that a partial export gets completed. Returns
+     * true if anything was written.
+     */
+    private boolean writeTile(WorldFileWriter writer, File file, byte[] data, byte[] world)
+            throws IOException {
+        boolean written = false;
+        if (options.overwriteChanged) {
+            written = WorldFileWriter.writeFileIfChanged(file, data, 0, data.length);
+        } else if (options.overwrite || !file.exists()) {
+            WorldFileWriter.writeFile(file, data, 0, data.length);
+            written = true;
+        }
+        written |= writer.write(file, world, 0, world.length);
+        return written;
+    }
+}
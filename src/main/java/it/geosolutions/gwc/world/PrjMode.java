@@ -0,0 +1,53 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+
+/** How the projection (.prj) sidecars get written */
+enum PrjMode {
+    /** A full copy of the WKT along with each tile */
+    COPY {
+        @Override
+        ProjectionWriter newWriter(byte[] wkt, File gridsetDirectory) {
+            return new ProjectionWriter.Copy(wkt);
+        }
+    },
+    /** Each tile .prj is a hard link to a single .prj file in the gridset directory */
+    LINK {
+        @Override
+        ProjectionWriter newWriter(byte[] wkt, File gridsetDirectory) {
+            return new ProjectionWriter.Link(wkt, gridsetDirectory);
+        }
+    },
+    /** A single .prj file per zoom level directory, named after the directory */
+    ZOOM {
+        @Override
+        ProjectionWriter newWriter(byte[] wkt, File gridsetDirectory) {
+            return new ProjectionWriter.Zoom(wkt);
+        }
+    };
+
+    abstract ProjectionWriter newWriter(byte[] wkt, File gridsetDirectory);
+
+    static PrjMode fromString(String mode) {
+        for (PrjMode value : values()) {
+            if (value.name().equalsIgnoreCase(mode)) return value;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/** Writes the projection sidecar of a tile, according to one of the {@link PrjMode} */
+abstract class ProjectionWriter {
+
+    final byte[] wkt;
+
+    /** Leaves alone the existing projection files that already have the same contents */
+    boolean onlyChanged;
+
+    ProjectionWriter(byte[] wkt) {
+        this.wkt = wkt;
+    }
+
+    /**
+     * Writes the projection for the given tile, called only when its world file is written.
+     * Returns false if there was nothing to write.
+     */
+    abstract boolean write(File tile, boolean overwrite) throws IOException;
+
+    /** Writes a copy of the WKT, unless only changes are written and it's already there */
+    boolean writeCopy(File prj) throws IOException {
+        if (onlyChanged) return WorldFileWriter.writeFileIfChanged(prj, wkt, 0, wkt.length);
+
+        WorldFileWriter.writeFile(prj, wkt, 0, wkt.length);
+        return true;
+    }
+
+    /** Returns true if the file exists, and has the same contents as the WKT */
+    boolean hasWkt(Path prj) throws IOException {
+        try {
+            return Files.size(prj) == wkt.length && Arrays.equals(Files.readAllBytes(prj), wkt);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    static File getTileProjection(File tile) {
+        String baseName = FilenameUtils.getBaseName(tile.getName());
+        return new File(tile.getParentFile(), baseName + ".prj");
+    }
+
+    /** The WKT is copied along with each tile */
+    static class Copy extends ProjectionWriter {
+
+        Copy(byte[] wkt) {
+            super(wkt);
+        }
+
+        @Override
+        boolean write(File tile, boolean overwrite) throws IOException {
+            return writeCopy(getTileProjection(tile));
+        }
+    }
+
+    /**
+     * Each tile .prj is a hard link to a canonical file in the gridset directory. File systems
+     * cap the number of links to a single file (e.g., 65000 on ext4), when the cap is hit a new
+     * canonical file is started. If links are not supported at all, falls back on copies.
+     */
+    static class Link extends ProjectionWriter {
+
+        final File gridsetDirectory;
+
+        volatile Path canonical;
+
+        int generation;
+
+        volatile boolean copy;
+
+        Link(byte[] wkt, File gridsetDirectory) {
+            super(wkt);
+            this.gridsetDirectory = gridsetDirectory;
+        }
+
+        @Override
+        boolean write(File tile, boolean overwrite) throws IOException {
+            if (copy) return writeCopy(getTileProjection(tile));
+
+            Path prj = getTileProjection(tile).toPath();
+            // linked or copied, what matters is the contents
+            if (onlyChanged && hasWkt(prj)) return false;
+            // links cannot replace an existing file
+            Files.deleteIfExists(prj);
+            Path target = getCanonical(null);
+            try {
+                Files.createLink(prj, target);
+            } catch (IOException | UnsupportedOperationException e) {
+                // maybe too many links, try again with a new canonical file
+                try {
+                    Files.createLink(prj, getCanonical(target));
+                } catch (IOException | UnsupportedOperationException e2) {
+                    if (!copy) {
+                        copy = true;
+                        System.err.println(
+                                "Cannot create hard links in "
+                                        + gridsetDirectory
+                                        + ", copying .prj files instead. Error: "
+                                        + e2.getMessage());
+                    }
+                    WorldFileWriter.writeFile(prj.toFile(), wkt, 0, wkt.length);
+                }
+            }
+            return true;
+        }
+
+        /** Returns the current canonical file, creating a new one if it's still the failed one */
+        synchronized Path getCanonical(Path failed) throws IOException {
+            if (canonical == null || canonical.equals(failed)) {
+                String suffix = generation == 0 ? "" : "_" + generation;
+                generation++;
+                String name = gridsetDirectory.getName() + suffix + ".prj";
+                File file = new File(gridsetDirectory, name);
+                FileUtils.writeByteArrayToFile(file, wkt);
+                canonical = file.toPath();
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * A single .prj per zoom level directory, named after it. The zoom level directory is the
+     * grandparent of the tile in all the supported layouts.
+     */
+    static class Zoom extends ProjectionWriter {
+
+        final Set<File> written = ConcurrentHashMap.newKeySet();
+
+        Zoom(byte[] wkt) {
+            super(wkt);
+        }
+
+        @Override
+        boolean write(File tile, boolean overwrite) throws IOException {
+            File zoomDirectory = tile.getParentFile().getParentFile();
+            if (written.contains(zoomDirectory)) return false;
+
+            synchronized (this) {
+                if (written.contains(zoomDirectory)) return false;
+                File prj = new File(zoomDirectory, zoomDirectory.getName() + ".prj");
+                boolean result = false;
+                if (onlyChanged) {
+                    result = writeCopy(prj);
+                } else if (overwrite || !prj.exists()) {
+                    FileUtils.writeByteArrayToFile(prj, wkt);
+                    result = true;
+                }
+                written.add(zoomDirectory);
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Counters and latency histograms of a world files generation run, updated concurrently by the
+ * pipeline stages with low contention adders, and read by the progress reporter and the final
+ * summary
+ */
+class RunMetrics {
+
+    /** The operations being measured */
+    enum Stage {
+        /** Listing of a directory */
+        WALK,
+        /** Parsing of a tile name into tile coordinates */
+        PARSE,
+        /** Rendering of the world file contents */
+        COMPUTE,
+        /** Writing of the world file and its projection */
+        WRITE,
+        /** Tiles skipped, because their world file exists or their name is not a valid tile */
+        SKIP,
+        /** Failed listings, computations and writes */
+        ERROR;
+
+        String getName() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /** Latency histogram with power of two buckets, in nanoseconds */
+    static class Histogram {
+
+        final LongAdder count = new LongAdder();
+
+        final LongAdder totalNanos = new LongAdder();
+
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Bucket i counts the latencies below 2^i nanoseconds, and not below 2^(i-1). Adders rather
+         * than an atomic array, the few buckets actually hit are shared by all the threads of a
+         * stage.
+         */
+        final LongAdder[] buckets = new LongAdder[64];
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            count.increment();
+            if (nanos < 0) return;
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        }
+
+        /** Upper bound of the bucket containing the given percentile, in nanoseconds */
+        long getPercentile(double percentile) {
+            long total = 0;
+            for (LongAdder bucket : buckets) total += bucket.sum();
+            if (total == 0) return 0;
+
+            long threshold = (long) Math.ceil(total * percentile);
+            long cumulated = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulated += buckets[i].sum();
+                if (cumulated >= threshold) return i == 0 ? 0 : Math.min(1L << i, maxNanos.get());
+            }
+            return maxNanos.get();
+        }
+
+        double getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (double) n;
+        }
+    }
+
+    final long startNanos = System.nanoTime();
+
+    final Histogram[] stages = new Histogram[Stage.values().length];
+
+    /** World files written, by gridset name and then zoom level */
+    final ConcurrentMap<String, ConcurrentMap<Integer, LongAdder>> written =
+            new ConcurrentHashMap<>();
+
+    RunMetrics() {
+        for (int i = 0; i < stages.length; i++) stages[i] = new Histogram();
+    }
+
+    /** Records an operation with its duration */
+    void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /** Records operations without a duration, e.g., skips and errors */
+    void add(Stage stage, long count) {
+        stages[stage.ordinal()].count.add(count);
+    }
+
+    long getCount(Stage stage) {
+        return stages[stage.ordinal()].count.sum();
+    }
+
+    Histogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /** Records world files written for a gridset and zoom level, meant to be called per batch */
+    void written(String gridset, int z, long count) {
+        written.computeIfAbsent(gridset, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(z, k -> new LongAdder())
+                .add(count);
+    }
+
+    double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /** A one line summary of the run so far, for progress reporting */
+    String getProgressLine() {
+        double elapsed = getElapsedSeconds();
+        long writes = getCount(Stage.WRITE);
+        return String.format(
+                Locale.ENGLISH,
+                "World files generated: %d (%.0f/s), directories listed: %d, skipped tiles: %d,"
+                        + " errors: %d",
+                writes,
+                elapsed > 0 ? writes / elapsed : 0,
+                getCount(Stage.WALK),
+                getCount(Stage.SKIP),
+                getCount(Stage.ERROR));
+    }
+
+    /** Per stage summary lines, reporting counts and latencies */
+    String getStageSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Histogram h = getHistogram(stage);
+            sb.append(String.format(Locale.ENGLISH, "%-8s %12d", stage.getName(), h.count.sum()));
+            if (h.totalNanos.sum() > 0) {
+                sb.append(
+                        String.format(
+                                Locale.ENGLISH,
+                                "  mean %10.1f us  p50 %10.1f us  p99 %10.1f us  max %10.1f us",
+                                h.getMeanNanos() / 1e3,
+                                h.getPercentile(0.5) / 1e3,
+                                h.getPercentile(0.99) / 1e3,
+                                h.maxNanos.get() / 1e3));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Machine readable summary of the run */
+    String toJson() {
+        double elapsed = getElapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"elapsedSeconds\": ").append(format(elapsed)).append(",\n");
+        sb.append("  \"worldFilesPerSecond\": ")
+                .append(format(getRate(getCount(Stage.WRITE), elapsed)))
+                .append(",\n");
+        sb.append("  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            Histogram h = getHistogram(stage);
+            sb.append(separator).append("    \"").append(stage.getName()).append("\": {");
+            sb.append("\"count\": ").append(h.count.sum());
+            if (h.totalNanos.sum() > 0) {
+                sb.append(", \"totalMillis\": ").append(format(h.totalNanos.sum() / 1e6));
+                sb.append(", \"meanMicros\": ").append(format(h.getMeanNanos() / 1e3));
+                sb.append(", \"p50Micros\": ").append(format(h.getPercentile(0.5) / 1e3));
+                sb.append(", \"p90Micros\": ").append(format(h.getPercentile(0.9) / 1e3));
+                sb.append(", \"p99Micros\": ").append(format(h.getPercentile(0.99) / 1e3));
+                sb.append(", \"maxMicros\": ").append(format(h.maxNanos.get() / 1e3));
+            }
+            sb.append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"gridsets\": {");
+        separator = "\n";
+        for (Map.Entry<String, ConcurrentMap<Integer, LongAdder>> gridset :
+                new TreeMap<>(written).entrySet()) {
+            long gridsetCount = 0;
+            StringBuilder zooms = new StringBuilder();
+            String zoomSeparator = "";
+            for (Map.Entry<Integer, LongAdder> zoom :
+                    new TreeMap<>(gridset.getValue()).entrySet()) {
+                long count = zoom.getValue().sum();
+                gridsetCount += count;
+                zooms.append(zoomSeparator).append("\"").append(zoom.getKey()).append("\": ");
+                zooms.append("{\"count\": ").append(count);
+                zooms.append(", \"filesPerSecond\": ").append(format(getRate(count, elapsed)));
+                zooms.append("}");
+                zoomSeparator = ", ";
+            }
+            sb.append(separator).append("    ");
+            appendString(sb, gridset.getKey());
+            sb.append(": {\"count\": ").append(gridsetCount);
+            sb.append(", \"filesPerSecond\": ").append(format(getRate(gridsetCount, elapsed)));
+            sb.append(", \"zooms\": {").append(zooms).append("}}");
+            separator = ",\n";
+        }
+        sb.append("\n  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    void writeJson(File file) throws IOException {
+        FileUtils.writeStringToFile(file, toJson(), StandardCharsets.UTF_8);
+    }
+
+    private static double getRate(long count, double seconds) {
+        return seconds > 0 ? count / seconds : 0;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+}
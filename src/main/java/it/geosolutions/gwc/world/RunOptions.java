@@ -0,0 +1,165 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import org.geowebcache.grid.BoundingBox;
+
+/** Options controlling a world files generation run, as parsed from the command line */
+class RunOptions {
+
+    /** Seconds between runs when watching falls back on polling */
+    static final int DEFAULT_POLL_INTERVAL = 60;
+
+    boolean overwrite;
+
+    /** When overwriting, leaves alone the sidecars whose contents would not change */
+    boolean overwriteChanged;
+
+    boolean prj;
+
+    /** How the projection files are written, when enabled */
+    PrjMode prjMode = PrjMode.COPY;
+
+    /** Lowest zoom level getting world files */
+    int minZoom = 0;
+
+    /** Highest zoom level getting world files */
+    int maxZoom = Integer.MAX_VALUE;
+
+    /** Area getting world files, in the CRS of each gridset, null means the whole gridset */
+    BoundingBox bbox;
+
+    /**
+     * Only tiles modified after this time, in milliseconds since the epoch, get a world file.
+     * Negative means no time limit.
+     */
+    long since = -1;
+
+    /** Also rewrites the world files older than their tile */
+    boolean newer;
+
+    /**
+     * File holding the start time of the last complete run, read for and updated after a "-since
+     * last" run, null if not used
+     */
+    File watermark;
+
+    /** Single file world index to write instead of the sidecars, null to write sidecars */
+    File index;
+
+    /** Zip or tar archive bundling the tiles with their world files, null to write sidecars */
+    File archive;
+
+    /** Computes the world files without writing them */
+    boolean dryRun;
+
+    /** When the directory traversal checks the type of the entries it finds */
+    StatMode statMode = StatMode.AMBIGUOUS;
+
+    /** Records completed directories in a journal, and skips those completed by previous runs */
+    boolean resume;
+
+    /** Location of the checkpoint journal, null means the default one in the layer directory */
+    File journal;
+
+    /** Default number of threads for each pipeline stage */
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Threads listing directories, zero means "use parallelism" */
+    int walkThreads;
+
+    /** Threads computing the world file contents, zero means "use parallelism" */
+    int computeThreads;
+
+    /**
+     * Threads writing the world files, zero means "use parallelism". Writing is I/O bound, on high
+     * latency storage it pays off to have more of these than cores.
+     */
+    int ioThreads;
+
+    /**
+     * Number of virtual threads, and thus of concurrent file system operations, in each of the
+     * directory listing and write stages. Zero means the stages use platform threads.
+     */
+    int virtualThreads;
+
+    /** Capacity, in batches, of each queue connecting two pipeline stages */
+    int queueSize = 64;
+
+    /** Maximum number of tiles handed over from a stage to the next one in a single batch */
+    int batchSize = 256;
+
+    /**
+     * Maximum number of tile directory entries held in memory to match the tiles with their
+     * world files. Beyond it, the tiles are batched while listing, and their world files are
+     * checked one by one.
+     */
+    int listingLimit = 65536;
+
+    /** Maximum number of tiles listed and not yet written, 0 if unbounded */
+    int maxInFlight;
+
+    /**
+     * Maximum number of directories waiting to be listed. Beyond it, the walk goes depth first on
+     * the listing thread, so that wide caches do not get their whole directory frontier in memory.
+     */
+    int walkQueueSize = 1024;
+
+    /** Keeps running, writing the world files of the tiles added to the cache */
+    boolean watch;
+
+    /** Seconds between runs when watching by polling, zero means using file system events */
+    int pollInterval;
+
+    /** Milliseconds new tiles are collected for, before writing their world files in a batch */
+    int watchDelay = 500;
+
+    /** Seconds between progress reports, zero disables them */
+    int reportInterval = 10;
+
+    /** Location of the JSON summary of the run metrics, null if not required */
+    File stats;
+
+    /** Returns true if the world files are restricted to some zoom levels or area */
+    boolean isFiltered() {
+        return minZoom > 0 || maxZoom < Integer.MAX_VALUE || bbox != null;
+    }
+
+    /**
+     * Describes the zoom levels and area restrictions, to be recorded in the checkpoint journal,
+     * null if not filtered
+     */
+    String getFilters() {
+        if (!isFiltered()) return null;
+        StringBuilder sb = new StringBuilder("zooms=").append(minZoom).append('-').append(maxZoom);
+        if (bbox != null) {
+            sb.append(" bbox=").append(bbox.getMinX()).append(',').append(bbox.getMinY());
+            sb.append(',').append(bbox.getMaxX()).append(',').append(bbox.getMaxY());
+        }
+        return sb.toString();
+    }
+
+    /** Returns true if the tiles and world files modification times are taken into account */
+    boolean isChangeDriven() {
+        return since >= 0 || newer;
+    }
+
+    int getThreads(int stageThreads) {
+        return stageThreads > 0 ? stageThreads : parallelism;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+/**
+ * When the directory traversal checks the type of an entry with a stat call. Java directory
+ * listings do not expose the entry type the operating system returns along with the names, and
+ * on network file systems each stat is a round trip to the server.
+ */
+enum StatMode {
+    /** Every entry is checked, for caches mixing tiles with unrelated files and directories */
+    ALWAYS,
+    /**
+     * Entries are classified by name first: tiles by their extension, directories by the layout.
+     * Only the names the layout accepts as directories, and that could still be files, are
+     * checked.
+     */
+    AMBIGUOUS,
+    /**
+     * Entries are never checked, names the layout accepts as directories are listed right away,
+     * and silently skipped if they turn out to be files
+     */
+    NEVER;
+
+    static StatMode fromString(String mode) {
+        for (StatMode value : values()) {
+            if (value.name().equalsIgnoreCase(mode)) return value;
+        }
+        return null;
+    }
+}
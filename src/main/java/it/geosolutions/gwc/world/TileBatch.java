@@ -0,0 +1,104 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A group of tiles sharing the same {@link WorldFileWriter}, handed over between the stages of
+ * the {@link WorldFilesPipeline}. The discovery stage fills the tiles, the compute stage the world
+ * file contents, the write stage consumes both.
+ */
+class TileBatch {
+
+    /** Marker telling a stage there is no more work coming */
+    static final TileBatch END = new TileBatch(null, null, null, 0);
+
+    final WorldFileWriter writer;
+
+    /** Progress of the directory containing the tiles, released once the batch is written */
+    final DirectoryProgress progress;
+
+    /** The directory containing the tiles */
+    final TileDirectory directory;
+
+    /** The tile file names */
+    final List<String> tiles;
+
+    /** The world files contents, back to back, in the same order as the tiles */
+    byte[] worldFiles;
+
+    /** End offset of each tile world file in {@link #worldFiles}, empty if not a valid tile */
+    int[] worldFileEnds;
+
+    /** The GWC internal x, y, z coordinates of each tile, back to back */
+    long[] coordinates;
+
+    TileBatch(
+            WorldFileWriter writer,
+            DirectoryProgress progress,
+            TileDirectory directory,
+            int capacity) {
+        this.writer = writer;
+        this.progress = progress;
+        this.directory = directory;
+        this.tiles = new ArrayList<>(capacity);
+    }
+
+    int size() {
+        return tiles.size();
+    }
+
+    File getTile(int index) {
+        return directory.getTile(tiles.get(index));
+    }
+
+    /** Sets the world file contents of the tile at the given index, tiles must be set in order */
+    void setWorldFile(int index, CharSequence contents) {
+        if (worldFileEnds == null) {
+            worldFileEnds = new int[size()];
+            worldFiles = new byte[size() * 128];
+        }
+        int start = getWorldFileStart(index);
+        int end = start + contents.length();
+        if (end > worldFiles.length) {
+            worldFiles = Arrays.copyOf(worldFiles, Math.max(end, worldFiles.length * 2));
+        }
+        // world files are plain ASCII
+        for (int i = 0; i < contents.length(); i++) {
+            worldFiles[start + i] = (byte) contents.charAt(i);
+        }
+        worldFileEnds[index] = end;
+    }
+
+    /** Sets the coordinates of the tile at the given index */
+    void setCoordinates(int index, long[] tileCoordinates) {
+        if (coordinates == null) coordinates = new long[size() * 3];
+        System.arraycopy(tileCoordinates, 0, coordinates, index * 3, 3);
+    }
+
+    int getWorldFileStart(int index) {
+        return index == 0 ? 0 : worldFileEnds[index - 1];
+    }
+
+    int getWorldFileLength(int index) {
+        return worldFileEnds[index] - getWorldFileStart(index);
+    }
+}
@@ -17,6 +17,8 @@
 package it.geosolutions.gwc.world;
 
 import java.io.File;
+import java.nio.file.Path;
+import org.geowebcache.grid.Grid;
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
 
@@ -34,4 +36,73 @@ public interface TileCalculator {
 
     /** GWC internal XYZ coordinates for a given file (TMS coordinates) */
     long[] getCoordinates(File tileFile, GridSet gridSet);
+
+    /**
+     * Returns the tile directory context for the given directory, with the parts of the tile
+     * coordinates encoded in its path already parsed, to be shared by all the tiles it contains
+     */
+    default TileDirectory getTileDirectory(Path directory) {
+        return new TileDirectory(directory, TileDirectory.UNKNOWN, TileDirectory.UNKNOWN);
+    }
+
+    /** Returns the context of a gridset directory, the starting point of a layout traversal */
+    default TileDirectory getGridsetDirectory(Path gridsetDirectory) {
+        return new TileDirectory(gridsetDirectory, TileDirectory.UNKNOWN, TileDirectory.UNKNOWN, 0);
+    }
+
+    /**
+     * Returns the context of the sub-directory with the given name, carrying down the parts of
+     * the tile coordinates parsed so far, or null if the layout does not expect tiles below a
+     * directory with that name and position. The name is not checked to be a directory.
+     */
+    TileDirectory getChildDirectory(TileDirectory parent, String name);
+
+    /** Returns true if the directory is at the layout level containing the tiles */
+    boolean isTileDirectory(TileDirectory directory);
+
+    /**
+     * Allocation free version of {@link #getCoordinates(File, GridSet)}, parses the name of a
+     * file found in the given tile directory and stores the GWC internal XYZ coordinates in the
+     * provided array. Returns false if the file is not a tile.
+     */
+    default boolean getCoordinates(
+            TileDirectory directory, CharSequence fileName, GridSet gridSet, long[] coordinates) {
+        long[] result = getCoordinates(directory.getTile(fileName.toString()), gridSet);
+        if (result == null) return false;
+
+        System.arraycopy(result, 0, coordinates, 0, 3);
+        return true;
+    }
+
+    /**
+     * Estimates the number of tiles below a directory, out of the gridset grid dimensions, to
+     * schedule the largest subtrees first. By default a column directory holds a full column, a
+     * zoom level directory a full level, and anything above all levels. This is an upper bound,
+     * the pipeline caps it with the number of directories actually found next to this one.
+     */
+    default long getEstimatedTiles(TileDirectory directory, GridSet gridSet) {
+        int z = directory.z;
+        if (z == TileDirectory.UNKNOWN) {
+            long tiles = 0;
+            for (int level = 0; level < gridSet.getNumLevels(); level++)
+                tiles = saturatedAdd(tiles, getLevelTiles(gridSet, level));
+            return tiles;
+        }
+        if (z >= gridSet.getNumLevels()) return 0;
+        if (directory.x == TileDirectory.UNKNOWN) return getLevelTiles(gridSet, z);
+        return gridSet.getGrid(z).getNumTilesHigh();
+    }
+
+    /** Number of tiles in a level of the gridset, capped to the maximum long */
+    static long getLevelTiles(GridSet gridSet, int z) {
+        Grid grid = gridSet.getGrid(z);
+        long wide = grid.getNumTilesWide();
+        long high = grid.getNumTilesHigh();
+        return high != 0 && wide > Long.MAX_VALUE / high ? Long.MAX_VALUE : wide * high;
+    }
+
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * A directory in the tile layout, along with the parts of the tile coordinates encoded in its
+ * path, parsed once while descending from the gridset directory and shared by all the tiles and
+ * sub-directories it contains
+ */
+class TileDirectory {
+
+    /** Value of a coordinate not encoded in the directory path, or not valid */
+    static final int UNKNOWN = -1;
+
+    final Path path;
+
+    final File file;
+
+    /** Zoom level, or {@link #UNKNOWN} */
+    final int z;
+
+    /** Tile column, or {@link #UNKNOWN} */
+    final long x;
+
+    /** Depth below the gridset directory, or {@link #UNKNOWN} */
+    final int depth;
+
+    TileDirectory(Path path, int z, long x) {
+        this(path, z, x, UNKNOWN);
+    }
+
+    TileDirectory(Path path, int z, long x, int depth) {
+        this.path = path;
+        this.file = path.toFile();
+        this.z = z;
+        this.x = x;
+        this.depth = depth;
+    }
+
+    /**
+     * Child directory context for the layouts ending with zoom level and column directories, in
+     * "z/x/y.extension" form. Returns null if the name is not a valid zoom level or column, or if
+     * the parent is already a column directory.
+     */
+    static TileDirectory getZoomOrColumn(TileDirectory parent, String name) {
+        if (parent.x != UNKNOWN) return null;
+        long value = TileNames.parseLong(name);
+        if (value == TileNames.INVALID) return null;
+
+        Path path = parent.path.resolve(name);
+        if (parent.z == UNKNOWN) {
+            if (value > Integer.MAX_VALUE) return null;
+            return new TileDirectory(path, (int) value, UNKNOWN, parent.depth + 1);
+        }
+        return new TileDirectory(path, parent.z, value, parent.depth + 1);
+    }
+
+    /** Parses the zoom level and column out of the path of a "z/x" column directory */
+    static TileDirectory parseZoomAndColumn(Path directory) {
+        Path parent = directory.getParent();
+        if (parent == null || parent.getFileName() == null || directory.getFileName() == null)
+            return new TileDirectory(directory, UNKNOWN, UNKNOWN);
+
+        long z = TileNames.parseLong(parent.getFileName().toString());
+        long x = TileNames.parseLong(directory.getFileName().toString());
+        if (z == TileNames.INVALID || z > Integer.MAX_VALUE || x == TileNames.INVALID)
+            return new TileDirectory(directory, UNKNOWN, UNKNOWN);
+        return new TileDirectory(directory, (int) z, x);
+    }
+
+    /**
+     * Parses a "y.extension" tile name in a column directory, returns the row or {@link
+     * TileNames#INVALID}
+     */
+    long parseRow(CharSequence fileName) {
+        if (z == UNKNOWN || x == UNKNOWN) return TileNames.INVALID;
+        return TileNames.parseLong(fileName, 0, TileNames.getBaseNameEnd(fileName));
+    }
+
+    File getTile(String name) {
+        return new File(file, name);
+    }
+}
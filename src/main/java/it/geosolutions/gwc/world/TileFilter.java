@@ -0,0 +1,100 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+
+/**
+ * Restricts the tiles of a gridset getting a world file to a range of zoom levels and,
+ * optionally, to a bounding box. Directories whose zoom level or column is known are checked
+ * before being listed, so that the traversal skips them altogether.
+ */
+class TileFilter {
+
+    final int minZoom;
+
+    final int maxZoom;
+
+    /**
+     * Tile ranges by zoom level, as {minx, miny, maxx, maxy} in GWC internal coordinates, null if
+     * there is no bounding box. A null range means no tiles at that level.
+     */
+    final long[][] coverages;
+
+    /**
+     * Builds a filter for the given gridset, the bounding box is expressed in the gridset CRS, and
+     * can be null
+     */
+    TileFilter(GridSet gridSet, int minZoom, int maxZoom, BoundingBox bbox) {
+        this.minZoom = Math.max(0, minZoom);
+        this.maxZoom = Math.min(maxZoom, gridSet.getNumLevels() - 1);
+        if (bbox == null) {
+            coverages = null;
+        } else {
+            coverages = new long[gridSet.getNumLevels()][];
+            if (this.minZoom <= this.maxZoom && intersects(gridSet.getOriginalExtent(), bbox)) {
+                GridSubset subset =
+                        GridSubsetFactory.createGridSubSet(
+                                gridSet, bbox, this.minZoom, this.maxZoom);
+                for (int z = this.minZoom; z <= this.maxZoom; z++) {
+                    long[] coverage = subset.getCoverage(z);
+                    if (isValid(coverage)) coverages[z] = coverage;
+                }
+            }
+        }
+    }
+
+    private static boolean isValid(long[] coverage) {
+        return coverage != null && coverage[0] <= coverage[2] && coverage[1] <= coverage[3];
+    }
+
+    private static boolean intersects(BoundingBox a, BoundingBox b) {
+        return a.getMinX() < b.getMaxX()
+                && b.getMinX() < a.getMaxX()
+                && a.getMinY() < b.getMaxY()
+                && b.getMinY() < a.getMaxY();
+    }
+
+    boolean acceptsZoom(int z) {
+        return z >= minZoom && z <= maxZoom && (coverages == null || coverages[z] != null);
+    }
+
+    /** Checks a directory against the parts of the tile coordinates known so far */
+    boolean accepts(TileDirectory directory) {
+        if (directory.z == TileDirectory.UNKNOWN) return true;
+        if (!acceptsZoom(directory.z)) return false;
+        if (directory.x == TileDirectory.UNKNOWN || coverages == null) return true;
+
+        long[] coverage = coverages[directory.z];
+        return directory.x >= coverage[0] && directory.x <= coverage[2];
+    }
+
+    /** Checks the GWC internal coordinates of a tile */
+    boolean accepts(long[] coordinates) {
+        long x = coordinates[0];
+        long y = coordinates[1];
+        long z = coordinates[2];
+        if (z > Integer.MAX_VALUE || !acceptsZoom((int) z)) return false;
+        if (coverages == null) return true;
+
+        long[] coverage = coverages[(int) z];
+        return x >= coverage[0] && x <= coverage[2] && y >= coverage[1] && y <= coverage[3];
+    }
+}
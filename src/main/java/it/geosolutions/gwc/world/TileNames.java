@@ -0,0 +1,80 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+/**
+ * Allocation free helpers to parse the tile coordinates out of file and directory names, working
+ * directly on the characters instead of splitting strings and boxing numbers
+ */
+class TileNames {
+
+    /** Returned by the parsing methods when the characters are not a valid number */
+    static final int INVALID = -1;
+
+    /** Longest sequence of digits that cannot overflow a long */
+    private static final int MAX_DIGITS = 18;
+
+    private TileNames() {}
+
+    /**
+     * Parses the characters between start (inclusive) and end (exclusive) as a non negative
+     * number, returns {@link #INVALID} if they are empty or contain anything but digits
+     */
+    static long parseLong(CharSequence chars, int start, int end) {
+        if (start >= end || end - start > MAX_DIGITS) return INVALID;
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') return INVALID;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /** Parses the whole sequence as a non negative number, see {@link #parseLong} */
+    static long parseLong(CharSequence chars) {
+        return parseLong(chars, 0, chars.length());
+    }
+
+    /**
+     * Returns the end of the base name of a file name, that is, the position of the extension
+     * separator, or the length of the name if there is no extension
+     */
+    static int getBaseNameEnd(CharSequence fileName) {
+        for (int i = fileName.length() - 1; i >= 0; i--) {
+            if (fileName.charAt(i) == '.') return i;
+        }
+        return fileName.length();
+    }
+
+    /** Returns the position of the character between start and end, or -1 if not found */
+    static int indexOf(CharSequence chars, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    /** Returns true if the characters start with the given prefix */
+    static boolean startsWith(CharSequence chars, String prefix) {
+        if (chars.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later. The tool is built for Java 8, so the thread
+ * builder API is looked up via reflection, and found missing on older runtimes. On Java 19 and 20
+ * the API is there but fails unless preview features are enabled, so support is checked once by
+ * actually building a factory.
+ */
+class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = getMethod(Thread.class, "ofVirtual");
+
+    private static final Method NAME =
+            getMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+
+    private static final Method FACTORY = getMethod("java.lang.Thread$Builder", "factory");
+
+    private static final boolean SUPPORTED = checkSupported();
+
+    private VirtualThreads() {}
+
+    private static Method getMethod(String className, String name, Class<?>... parameters) {
+        try {
+            return getMethod(Class.forName(className), name, parameters);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method getMethod(Class<?> target, String name, Class<?>... parameters) {
+        try {
+            return target.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean checkSupported() {
+        if (OF_VIRTUAL == null || NAME == null || FACTORY == null) return false;
+        try {
+            // creates a thread without starting it
+            buildFactory("check-").newThread(() -> {});
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory buildFactory(String prefix)
+            throws IllegalAccessException, InvocationTargetException {
+        Object builder = OF_VIRTUAL.invoke(null);
+        builder = NAME.invoke(builder, prefix, 1L);
+        return (ThreadFactory) FACTORY.invoke(builder);
+    }
+
+    /** Returns true if the running JVM supports virtual threads */
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Returns a factory of virtual threads named after the prefix and a sequence number
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support them
+     */
+    static ThreadFactory newFactory(String prefix) {
+        if (!SUPPORTED)
+            throw new UnsupportedOperationException("Virtual threads are not supported");
+        try {
+            return buildFactory(prefix);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual threads factory", e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Stores the start time of the last complete run, so that the next one can process only the
+ * tiles modified since then. The time is taken before the run starts, tiles written while it was
+ * going on are picked up again by the next run.
+ */
+class Watermark {
+
+    static final String DEFAULT_NAME = ".worldfiles-watermark";
+
+    private Watermark() {}
+
+    /**
+     * Returns the stored time, in milliseconds since the epoch, or -1 if there is none. A file that
+     * cannot be parsed counts as missing, all the tiles get processed again.
+     */
+    static long read(File file) throws IOException {
+        if (!file.exists()) return -1;
+        String contents = FileUtils.readFileToString(file, StandardCharsets.UTF_8).trim();
+        // the first line holds the time, the second one a human readable version of it
+        int end = contents.indexOf('\n');
+        try {
+            long time = Long.parseLong(end < 0 ? contents : contents.substring(0, end).trim());
+            return time < 0 ? -1 : time;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Replaces the stored time, the file is never left half written */
+    static void write(File file, long time) throws IOException {
+        String contents = time + "\n" + Instant.ofEpochMilli(time) + "\n";
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        FileUtils.writeStringToFile(temp.toFile(), contents, StandardCharsets.UTF_8);
+        try {
+            Files.move(
+                    temp,
+                    target,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reader of the single file world index written by {@link IndexSink}, an alternative to
+ * millions of world file sidecars. The file is made of:
+ *
+ * <ul>
+ *   <li>the {@link #MAGIC} bytes
+ *   <li>the number of gridsets, and for each one its name, EPSG code, number of zoom levels, and
+ *       for each level the zoom level, the number of tiles and the offset of the first one
+ *   <li>the tiles, one fixed size {@link #RECORD_SIZE} record each, with the x and y GWC
+ *       internal coordinates as integers, followed by the six world file parameters as doubles
+ * </ul>
+ *
+ * Records are sorted by x and then y within each zoom level, so that a tile can be found with a
+ * binary search, reading the file or a memory mapping of it. All values are big endian.
+ */
+class WorldFileIndex implements Closeable {
+
+    static final byte[] MAGIC = "GWCWIDX1".getBytes(StandardCharsets.US_ASCII);
+
+    static final int RECORD_SIZE = 4 + 4 + 6 * 8;
+
+    /** A zoom level of a gridset, with the location of its records */
+    static class Level {
+        final long count;
+
+        final long offset;
+
+        Level(long count, long offset) {
+            this.count = count;
+            this.offset = offset;
+        }
+    }
+
+    final FileChannel channel;
+
+    final Map<String, Integer> srids = new HashMap<>();
+
+    final Map<String, Map<Integer, Level>> levels = new HashMap<>();
+
+    private WorldFileIndex(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Opens an index file, reading its header */
+    static WorldFileIndex open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        WorldFileIndex index = new WorldFileIndex(channel);
+        try {
+            index.readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return index;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer magic = read(0, MAGIC.length);
+        for (byte b : MAGIC) {
+            if (magic.get() != b) throw new IOException("Not a world file index");
+        }
+        long position = MAGIC.length;
+        int gridsets = read(position, 4).getInt();
+        position += 4;
+        for (int i = 0; i < gridsets; i++) {
+            int nameLength = read(position, 2).getShort() & 0xFFFF;
+            position += 2;
+            byte[] name = new byte[nameLength];
+            read(position, nameLength).get(name);
+            position += nameLength;
+            ByteBuffer buffer = read(position, 8);
+            position += 8;
+            String gridset = new String(name, StandardCharsets.UTF_8);
+            srids.put(gridset, buffer.getInt());
+            int levelCount = buffer.getInt();
+            Map<Integer, Level> gridsetLevels = new HashMap<>();
+            for (int j = 0; j < levelCount; j++) {
+                ByteBuffer level = read(position, 20);
+                position += 20;
+                gridsetLevels.put(level.getInt(), new Level(level.getLong(), level.getLong()));
+            }
+            levels.put(gridset, gridsetLevels);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Truncated world file index");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Number of tiles in the index */
+    long size() {
+        long size = 0;
+        for (Map<Integer, Level> gridsetLevels : levels.values()) {
+            for (Level level : gridsetLevels.values()) size += level.count;
+        }
+        return size;
+    }
+
+    /**
+     * Looks up the world file parameters of a tile, by gridset name and GWC internal coordinates,
+     * stores them in the target array and returns true if found
+     */
+    boolean get(String gridset, int z, long x, long y, double[] parameters) throws IOException {
+        Map<Integer, Level> gridsetLevels = levels.get(gridset);
+        Level level = gridsetLevels == null ? null : gridsetLevels.get(z);
+        if (level == null) return false;
+
+        long key = IndexSink.getKey(x, y);
+        long low = 0;
+        long high = level.count - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long position = level.offset + middle * RECORD_SIZE;
+            ByteBuffer record = read(position, RECORD_SIZE);
+            long middleKey = IndexSink.getKey(record.getInt(), record.getInt());
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                for (int i = 0; i < 6; i++) parameters[i] = record.getDouble();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
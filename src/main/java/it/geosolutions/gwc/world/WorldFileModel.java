@@ -0,0 +1,130 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.Grid;
+import org.geowebcache.grid.GridSet;
+
+/**
+ * Per zoom level affine parameters of a gridset (tile origin, tile span and number of tiles),
+ * allowing to render world files with a few multiplications instead of calling {@link
+ * GridSet#boundsFromIndex(long[])} and allocating a {@link BoundingBox} per tile.
+ *
+ * <p>The tile bounds are computed with the same floating point operations as {@link
+ * GridSet#boundsFromIndex(long[])}, each corner being the origin plus the span times the tile
+ * index, so that the output is the same down to the last digit.
+ */
+class WorldFileModel {
+
+    final GridSet gridSet;
+
+    final int tileWidth;
+
+    final int tileHeight;
+
+    final boolean topLeft;
+
+    final double[] originX;
+
+    final double[] originY;
+
+    final double[] spanX;
+
+    final double[] spanY;
+
+    final long[] tilesHigh;
+
+    public WorldFileModel(GridSet gridSet) {
+        this.gridSet = gridSet;
+        this.tileWidth = gridSet.getTileWidth();
+        this.tileHeight = gridSet.getTileHeight();
+        this.topLeft = gridSet.isTopLeftAligned();
+
+        int levels = gridSet.getNumLevels();
+        originX = new double[levels];
+        originY = new double[levels];
+        spanX = new double[levels];
+        spanY = new double[levels];
+        tilesHigh = new long[levels];
+        for (int z = 0; z < levels; z++) {
+            Grid grid = gridSet.getGrid(z);
+            tilesHigh[z] = grid.getNumTilesHigh();
+            spanX[z] = grid.getResolution() * tileWidth;
+            spanY[z] = grid.getResolution() * tileHeight;
+            // the tile having the origin as its lower left corner
+            long originRow = topLeft ? tilesHigh[z] : 0;
+            BoundingBox origin = gridSet.boundsFromIndex(new long[] {0, originRow, z});
+            originX[z] = origin.getMinX();
+            originY[z] = origin.getMinY();
+        }
+    }
+
+    /**
+     * Appends the world file contents for the tile at the given GWC internal coordinates to the
+     * target builder, which can be reused across calls
+     */
+    public void render(long x, long y, int z, StringBuilder target) {
+        // computed in place rather than through getParameters, no array allocated per tile
+        checkLevel(z);
+        long row = getRow(y, z);
+        double minX = originX[z] + spanX[z] * x;
+        double minY = originY[z] + spanY[z] * row;
+        double maxX = originX[z] + spanX[z] * (x + 1);
+        double maxY = originY[z] + spanY[z] * (row + 1);
+
+        target.append((maxX - minX) / tileWidth).append('\n');
+        target.append(0).append('\n');
+        target.append(0).append('\n');
+        target.append(-((maxY - minY) / tileHeight)).append('\n');
+        target.append(minX).append('\n');
+        target.append(maxY).append('\n');
+    }
+
+    /**
+     * Stores the six affine parameters of the tile at the given GWC internal coordinates in the
+     * target array, in world file order: x scale, y skew, x skew, y scale, x and y of the upper
+     * left corner. Same values as {@link #render(long, long, int, StringBuilder)}, without going
+     * through text.
+     */
+    public void getParameters(long x, long y, int z, double[] target) {
+        checkLevel(z);
+        long row = getRow(y, z);
+        double minX = originX[z] + spanX[z] * x;
+        double minY = originY[z] + spanY[z] * row;
+        double maxX = originX[z] + spanX[z] * (x + 1);
+        double maxY = originY[z] + spanY[z] * (row + 1);
+
+        target[0] = (maxX - minX) / tileWidth;
+        target[1] = 0;
+        target[2] = 0;
+        target[3] = -((maxY - minY) / tileHeight);
+        target[4] = minX;
+        target[5] = maxY;
+    }
+
+    private void checkLevel(int z) {
+        if (z < 0 || z >= tilesHigh.length)
+            throw new IllegalArgumentException(
+                    "Zoom level " + z + " is not part of gridset " + gridSet.getName());
+    }
+
+    /** Same operations as GridSet.boundsFromIndex, the tile row counted from the origin */
+    private long getRow(long y, int z) {
+        return topLeft ? y - tilesHigh[z] : y;
+    }
+}
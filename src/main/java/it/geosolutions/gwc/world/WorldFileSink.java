@@ -0,0 +1,90 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Destination of the world files computed by the {@link WorldFilesPipeline}. Called concurrently
+ * by the write stage threads, and closed once they are all done.
+ */
+interface WorldFileSink extends Closeable {
+
+    /** Called before any tile gets written, with the layer directory being processed */
+    default void open(File layer) throws IOException {
+        // nothing to do by default
+    }
+
+    /**
+     * Stores the world file of the tile at the given index in the batch, its contents and
+     * coordinates have already been computed. Returns false if the stored world file was already
+     * up to date.
+     */
+    boolean write(TileBatch batch, int index) throws IOException;
+
+    /**
+     * Returns true if the world files are written as sidecars next to the tiles, where they can be
+     * found while listing the tile directories
+     */
+    boolean isSidecar();
+
+    /** Writes the world files as sidecars, the default */
+    class FileSystem implements WorldFileSink {
+
+        @Override
+        public boolean write(TileBatch batch, int index) throws IOException {
+            int offset = batch.getWorldFileStart(index);
+            int length = batch.getWorldFileLength(index);
+            // existing world files have been skipped while listing the directory
+            return batch.writer.writeWorldFile(
+                    batch.getTile(index), batch.worldFiles, offset, length);
+        }
+
+        @Override
+        public boolean isSidecar() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    /** Writes nothing, for dry runs counting the world files that would be written */
+    class Null implements WorldFileSink {
+
+        @Override
+        public boolean write(TileBatch batch, int index) {
+            // nothing to do
+            return true;
+        }
+
+        @Override
+        public boolean isSidecar() {
+            // behave as the file system one, skipping the existing world files
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
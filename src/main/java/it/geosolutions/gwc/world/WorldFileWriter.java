@@ -18,39 +18,31 @@ package it.geosolutions.gwc.world;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
-import org.apache.commons.io.FileUtils;
+import java.nio.file.StandardOpenOption;
 import org.apache.commons.io.FilenameUtils;
 import org.geotools.referencing.CRS;
-import org.geowebcache.grid.BoundingBox;
 import org.geowebcache.grid.GridSet;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 class WorldFileWriter {
 
-    static Map<Integer, String> WKTS = new HashMap<>();
-
-    static {
-        try (InputStream is = WorldFileWriter.class.getResourceAsStream("/epsg.properties")) {
-            Properties props = new Properties();
-            props.load(is);
-            props.forEach((k, v) -> WKTS.put(Integer.valueOf((String) k), (String) v));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     GridSet gridSet;
+    WorldFileModel model;
     TileCalculator tileCalculator;
 
     boolean overwrite;
 
-    String wkt;
+    /** When overwriting, sidecars are rewritten only if their contents change */
+    boolean onlyChanged;
+
+    ProjectionWriter projection;
+
+    /** Restricts the tiles getting a world file, null if all tiles do */
+    TileFilter filter;
 
     public WorldFileWriter(
             GridSet gridSet,
@@ -58,71 +50,205 @@ class WorldFileWriter {
             boolean overwrite,
             boolean writeProjection)
             throws FactoryException {
+        this(gridSet, tileCalculator, overwrite, writeProjection ? PrjMode.COPY : null, null);
+    }
+
+    /**
+     * Builds a writer for the tiles of a gridset directory, writing the projection sidecars
+     * according to the given mode, or not writing them at all if the mode is null
+     */
+    public WorldFileWriter(
+            GridSet gridSet,
+            TileCalculator tileCalculator,
+            boolean overwrite,
+            PrjMode prjMode,
+            File gridsetDirectory)
+            throws FactoryException {
+        this(
+                gridSet,
+                new WorldFileModel(gridSet),
+                tileCalculator,
+                overwrite,
+                prjMode,
+                prjMode == null ? null : getWkt(gridSet.getSrs().getNumber()),
+                gridsetDirectory);
+    }
+
+    /**
+     * Builds a writer out of an already resolved model and WKT, the latter is not used if the
+     * projection mode is null
+     */
+    WorldFileWriter(
+            GridSet gridSet,
+            WorldFileModel model,
+            TileCalculator tileCalculator,
+            boolean overwrite,
+            PrjMode prjMode,
+            byte[] wkt,
+            File gridsetDirectory) {
         this.gridSet = gridSet;
+        this.model = model;
         this.tileCalculator = tileCalculator;
         this.overwrite = overwrite;
 
-        if (writeProjection) {
+        if (prjMode != null) projection = prjMode.newWriter(wkt, gridsetDirectory);
+    }
 
-            int srid = gridSet.getSrs().getNumber();
-            if (WKTS.containsKey(srid)) {
-                wkt = WKTS.get(srid);
-            } else {
-                CoordinateReferenceSystem crs = CRS.decode("EPSG:" + srid);
-                wkt = crs.toWKT();
-            }
+    /** Returns the WKT of the given EPSG code, encoded in UTF-8 */
+    static byte[] getWkt(int srid) throws FactoryException {
+        String wkt = EpsgWkts.get(srid);
+        if (wkt == null) {
+            CoordinateReferenceSystem crs = CRS.decode("EPSG:" + srid);
+            wkt = crs.toWKT();
         }
+        return wkt.getBytes(StandardCharsets.UTF_8);
     }
 
     public boolean write(File file) {
-        // check a world file is not already there
-        File parent = file.getParentFile();
-        String baseName = FilenameUtils.getBaseName(file.getName());
-        String worldExtension = getWorldExtension(file);
-        File world = new File(parent, baseName + "." + worldExtension);
-        if (!overwrite && world.exists()) return false;
-
         String worldFileContents = getWorldFile(file);
         if (worldFileContents == null) return false;
 
         try {
-            FileUtils.writeStringToFile(world, worldFileContents, StandardCharsets.UTF_8);
-
-            if (wkt != null) {
-                File prj = new File(parent, baseName + ".prj");
-                FileUtils.writeStringToFile(prj, wkt, StandardCharsets.UTF_8);
-            }
-
-            return true;
+            byte[] contents = worldFileContents.getBytes(StandardCharsets.UTF_8);
+            return write(file, contents, 0, contents.length);
         } catch (IOException e) {
             System.err.println(
-                    "Failed to write world file " + world + ". Error: " + e.getMessage());
+                    "Failed to write world file for " + file + ". Error: " + e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Writes the world file contents, previously computed via {@link #getWorldFile(File,
+     * StringBuilder)}, along with the projection file if required. Returns false if the world file
+     * was already there and overwriting is disabled.
+     */
+    public boolean write(File file, byte[] contents, int offset, int length) throws IOException {
+        // check a world file is not already there
+        File world = getWorldFileLocation(file);
+        if (!overwrite && world.exists()) return false;
+
+        return writeWorldFile(file, contents, offset, length);
+    }
+
+    /**
+     * Writes the world file contents along with the projection file if required, without checking
+     * for an existing world file first. Used when the caller already knows which world files are
+     * there, e.g., from a directory listing. Returns false if only changes are written, and
+     * neither the world file nor the projection file changed.
+     */
+    boolean writeWorldFile(File file, byte[] contents, int offset, int length) throws IOException {
+        File world = getWorldFileLocation(file);
+        boolean written = true;
+        if (onlyChanged) written = writeFileIfChanged(world, contents, offset, length);
+        else writeFile(world, contents, offset, length);
+
+        if (projection != null) written |= projection.write(file, overwrite);
+        return written;
+    }
+
+    /**
+     * Writes a small sidecar file straight through a channel. Unlike the commons-io utilities,
+     * does not check or create the parent directory, which is known to exist as it contains the
+     * tile, and does not wrap the channel in a stream.
+     */
+    static void writeFile(File file, byte[] contents, int offset, int length) throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(
+                        file.toPath(),
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents, offset, length);
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes a small sidecar file unless it already has the same contents, so that unchanged
+     * files keep their modification time. The existing contents are read through the same channel
+     * used to write the new ones. Returns true if the file was written.
+     */
+    static boolean writeFileIfChanged(File file, byte[] contents, int offset, int length)
+            throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(
+                        file.toPath(),
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents, offset, length);
+            if (channel.size() == length) {
+                ByteBuffer existing = ByteBuffer.allocate(length);
+                while (existing.hasRemaining() && channel.read(existing) >= 0) ;
+                existing.flip();
+                if (existing.equals(buffer)) return false;
+                channel.position(0);
+            }
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.truncate(length);
+            return true;
+        }
+    }
+
+    File getWorldFileLocation(File file) {
+        return new File(file.getParentFile(), getBaseName(file) + "." + getWorldExtension(file));
+    }
+
+    private String getBaseName(File file) {
+        return FilenameUtils.getBaseName(file.getName());
+    }
+
     String getWorldFile(File file) {
+        StringBuilder sb = new StringBuilder();
+        return getWorldFile(file, sb) ? sb.toString() : null;
+    }
+
+    /**
+     * Appends the world file contents to the target builder, returns false if the file is not a
+     * valid tile
+     */
+    boolean getWorldFile(File file, StringBuilder target) {
         // compute affine transform parameters
         long[] coordinates = tileCalculator.getCoordinates(file, gridSet);
-        if (coordinates == null) return null;
+        if (coordinates == null) return false;
+
+        model.render(coordinates[0], coordinates[1], (int) coordinates[2], target);
+        return true;
+    }
 
-        BoundingBox bbox = gridSet.boundsFromIndex(coordinates);
-        int tileWidth = gridSet.getTileWidth();
-        int tileHeight = gridSet.getTileHeight();
+    /**
+     * Allocation free version of {@link #getWorldFile(File, StringBuilder)}, working off a tile
+     * name in a known tile directory, and using the provided array to hold the tile coordinates
+     */
+    boolean getWorldFile(
+            TileDirectory directory,
+            CharSequence fileName,
+            long[] coordinates,
+            StringBuilder target) {
+        if (!getCoordinates(directory, fileName, coordinates)) return false;
 
-        double scaleX = bbox.getWidth() / tileWidth;
-        double scaleY = bbox.getHeight() / tileHeight;
-        double offsetX = bbox.getMinX();
-        double offsetY = bbox.getMaxY();
+        render(coordinates, target);
+        return true;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(scaleX).append("\n");
-        sb.append(0).append("\n");
-        sb.append(0).append("\n");
-        sb.append(-scaleY).append("\n");
-        sb.append(offsetX).append("\n");
-        sb.append(offsetY).append("\n");
-        return sb.toString();
+    /**
+     * Parses a tile name in a known tile directory, returns false if it's not a valid tile, or if
+     * the filter excludes it
+     */
+    boolean getCoordinates(TileDirectory directory, CharSequence fileName, long[] coordinates) {
+        if (!tileCalculator.getCoordinates(directory, fileName, gridSet, coordinates)) return false;
+        return filter == null || filter.accepts(coordinates);
+    }
+
+    /** Returns false if the filter excludes all the tiles in the directory */
+    boolean accepts(TileDirectory directory) {
+        return filter == null || filter.accepts(directory);
+    }
+
+    /** Appends the world file contents of the tile at the given coordinates to the target */
+    void render(long[] coordinates, StringBuilder target) {
+        model.render(coordinates[0], coordinates[1], (int) coordinates[2], target);
     }
 
     String getWorldExtension(File file) {
@@ -0,0 +1,757 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FilenameUtils;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSetBroker;
+
+/**
+ * Staged world file generation engine. Directory discovery lists the cache directories and feeds
+ * batches of tiles into a bounded queue, the compute stage turns them into world file contents and
+ * feeds a second bounded queue, the write stage puts them on disk. Each stage runs on its own
+ * threads, so that the CPU bound and I/O bound parts can be sized independently, while the bounded
+ * queues stop a fast stage from running too far ahead of a slow one.
+ */
+class WorldFilesPipeline {
+
+    static final String WORLD_EXTENSION = "wld";
+
+    final TileCalculator calculator;
+
+    final GridSetBroker broker;
+
+    final RunOptions options;
+
+    final Printer printer;
+
+    /** Journal of the completed directories, null if the run is not resumable */
+    final CheckpointJournal journal;
+
+    final RunMetrics metrics = new RunMetrics();
+
+    final GridSetRegistry registry;
+
+    /** Where the world files end up */
+    final WorldFileSink sink;
+
+    final AtomicLong skippedDirectories = new AtomicLong(0);
+
+    /** Progress of the layer directory, or of the cache root when running several layers */
+    DirectoryProgress layerProgress;
+
+    BlockingQueue<TileBatch> tiles;
+
+    BlockingQueue<TileBatch> worldFiles;
+
+    /** Caps the tiles between the listing and the end of the write stage, null if unbounded */
+    Semaphore inFlight;
+
+    /** Directories listed or waiting to be listed, discovery is over when it drops to zero */
+    final AtomicInteger pendingDirectories = new AtomicInteger();
+
+    final CountDownLatch discoveryDone = new CountDownLatch(1);
+
+    /** Directories queued in the walk executor, capped at {@link RunOptions#walkQueueSize} */
+    final AtomicInteger queuedDirectories = new AtomicInteger();
+
+    /** Highest number of directories queued at once during the run */
+    final AtomicInteger peakQueuedDirectories = new AtomicInteger();
+
+    ExecutorService walkers;
+
+    public WorldFilesPipeline(
+            TileCalculator calculator, GridSetBroker broker, RunOptions options, Printer printer) {
+        this(calculator, broker, options, printer, null);
+    }
+
+    public WorldFilesPipeline(
+            TileCalculator calculator,
+            GridSetBroker broker,
+            RunOptions options,
+            Printer printer,
+            CheckpointJournal journal) {
+        this.calculator = calculator;
+        this.broker = broker;
+        this.options = options;
+        this.printer = printer;
+        this.journal = journal;
+        this.sink = newSink(options);
+        this.registry = new GridSetRegistry(options);
+    }
+
+    /** Builds the world files destination configured in the options */
+    static WorldFileSink newSink(RunOptions options) {
+        if (options.index != null) return new IndexSink(options.index);
+        if (options.archive != null) return ArchiveSink.forFile(options.archive);
+        if (options.dryRun) return new WorldFileSink.Null();
+        return new WorldFileSink.FileSystem();
+    }
+
+    /** Computes the world files for all the gridset directories found in the layer cache */
+    public long run(File cache) throws InterruptedException, ExecutionException {
+        return run(cache, null);
+    }
+
+    /**
+     * Computes the world files for several layers found in a cache root directory, sharing the
+     * stages and the resolved gridsets among them, and scheduling all their directories together.
+     * The journal paths are relative to the cache root. If the layers are null, the cache is
+     * itself a single layer directory.
+     */
+    public long run(File cache, List<File> layers) throws InterruptedException, ExecutionException {
+        try {
+            sink.open(cache);
+        } catch (IOException e) {
+            printer.err("Failed to open the world files output. Error: " + e.getMessage());
+            return 0;
+        }
+
+        // the I/O bound stages can run on virtual threads, the CPU bound one is left alone
+        boolean virtual = options.virtualThreads > 0 && VirtualThreads.isSupported();
+        if (options.virtualThreads > 0 && !virtual)
+            printer.err("Virtual threads require Java 21 or later, using platform threads");
+        int walkThreads = options.getThreads(options.walkThreads);
+        int computeThreads = options.getThreads(options.computeThreads);
+        int ioThreads = options.getThreads(options.ioThreads);
+        if (virtual) {
+            walkThreads = options.virtualThreads;
+            ioThreads = options.virtualThreads;
+        }
+        tiles = new ArrayBlockingQueue<>(options.queueSize);
+        if (options.maxInFlight > 0)
+            inFlight = new Semaphore(Math.max(options.maxInFlight, options.batchSize));
+        worldFiles = new ArrayBlockingQueue<>(options.queueSize);
+        walkers = newWalkExecutor(walkThreads, virtual);
+        ExecutorService computers = newExecutor("compute", computeThreads, false);
+        ExecutorService writers = newExecutor("io", ioThreads, virtual);
+        ScheduledExecutorService reporter =
+                Executors.newSingleThreadScheduledExecutor(newThreadFactory("report"));
+        if (options.reportInterval > 0) {
+            reporter.scheduleAtFixedRate(
+                    () -> printer.print(metrics.getProgressLine()),
+                    options.reportInterval,
+                    options.reportInterval,
+                    TimeUnit.SECONDS);
+        }
+        try {
+            List<Future<?>> computeTasks = new ArrayList<>();
+            for (int i = 0; i < computeThreads; i++) {
+                computeTasks.add(computers.submit(this::computeStage));
+            }
+            List<Future<?>> writeTasks = new ArrayList<>();
+            for (int i = 0; i < ioThreads; i++) {
+                writeTasks.add(writers.submit(this::writeStage));
+            }
+
+            // discovery, the top level directories of each layer are the gridset ones
+            layerProgress = new DirectoryProgress(journal);
+            pendingDirectories.incrementAndGet();
+            if (layers == null) {
+                submitLayer(layerProgress, cache);
+            } else {
+                for (File layer : layers) {
+                    DirectoryProgress progress = layerProgress.child(layer.getName());
+                    if (progress == null) {
+                        skippedDirectories.incrementAndGet();
+                        continue;
+                    }
+                    submitLayer(progress, layer);
+                    progress.release();
+                }
+            }
+            directoryCompleted();
+            discoveryDone.await();
+
+            // shut down the stages in order, each one draining its queue before stopping
+            for (int i = 0; i < computeThreads; i++) tiles.put(TileBatch.END);
+            for (Future<?> f : computeTasks) f.get();
+            for (int i = 0; i < ioThreads; i++) worldFiles.put(TileBatch.END);
+            for (Future<?> f : writeTasks) f.get();
+            closeSink();
+            layerProgress.release();
+        } finally {
+            walkers.shutdownNow();
+            computers.shutdownNow();
+            writers.shutdownNow();
+            reporter.shutdownNow();
+        }
+
+        return metrics.getCount(RunMetrics.Stage.WRITE);
+    }
+
+    private void closeSink() {
+        try {
+            sink.close();
+        } catch (IOException e) {
+            printer.err("Failed to complete the world files output. Error: " + e.getMessage());
+            metrics.add(RunMetrics.Stage.ERROR, 1);
+            layerProgress.fail();
+        }
+    }
+
+    /** The counters and latencies of the run */
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns true if all the directories found have been fully processed, without errors (tiles
+     * that are not valid for the layout are ignored, and don't count as errors)
+     */
+    public boolean isComplete() {
+        return layerProgress != null && layerProgress.pending.get() == 0 && !layerProgress.failed;
+    }
+
+    /** Number of directories skipped because a previous run already completed them */
+    public long getSkippedDirectories() {
+        return skippedDirectories.get();
+    }
+
+    private void submitLayer(DirectoryProgress progress, File layer) {
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(layer.toPath(), Files::isDirectory)) {
+            for (Path gridsetDirectory : stream) submitGridset(progress, gridsetDirectory.toFile());
+        } catch (IOException | RuntimeException e) {
+            // iteration failures come as an unchecked DirectoryIteratorException
+            printer.err("Failed to list directory " + layer + ". Error: " + e.getMessage());
+            progress.fail();
+        }
+    }
+
+    private void submitGridset(DirectoryProgress parent, File gridsetDirectory) {
+        GridSet gridSet = calculator.getGridset(gridsetDirectory, broker);
+        if (gridSet == null) {
+            printer.err("Unknown gridset, skipping directory " + gridsetDirectory);
+            return;
+        }
+
+        TileFilter filter = registry.get(gridSet).filter;
+        TileDirectory root = calculator.getGridsetDirectory(gridsetDirectory.toPath());
+        // the zoom level can be part of the directory name
+        if (filter != null && !filter.accepts(root)) return;
+
+        DirectoryProgress progress = parent.child(gridsetDirectory.getName());
+        if (progress == null) {
+            skippedDirectories.incrementAndGet();
+            return;
+        }
+
+        printer.print("Creating world files in " + gridsetDirectory);
+        try {
+            WorldFileWriter writer = registry.newWriter(calculator, gridSet, gridsetDirectory);
+            submitDirectory(writer, progress, root, Long.MAX_VALUE);
+        } catch (Exception e) {
+            printer.err(
+                    "Failed to setup world file writer for "
+                            + gridsetDirectory
+                            + ". Error: "
+                            + e.getMessage());
+            progress.fail();
+            progress.release();
+        }
+    }
+
+    /**
+     * A directory listing task. The walk stage runs the pending ones largest first, across all
+     * gridsets, so that the big subtrees get started early and the run does not end waiting on a
+     * single one while the other threads are idle.
+     */
+    static class WalkTask implements Runnable, Comparable<WalkTask> {
+
+        static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final long estimatedTiles;
+
+        /** Breaks ties in submission order */
+        final long sequence = SEQUENCE.incrementAndGet();
+
+        final Runnable task;
+
+        WalkTask(long estimatedTiles, Runnable task) {
+            this.estimatedTiles = estimatedTiles;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(WalkTask o) {
+            int result = Long.compare(o.estimatedTiles, estimatedTiles);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * Queues a directory for listing. When {@link RunOptions#walkQueueSize} directories are queued
+     * already, the directory is listed right away on the calling thread instead, depth first, so
+     * that at most one listing per level is open and the frontier kept in memory stays bounded.
+     *
+     * <p>The priority is the number of tiles the gridset allows below the directory, capped by the
+     * number of sibling directories actually found, as the width of the parent is the best hint
+     * about the width of its children: on a partial cache the theoretical size alone would just
+     * mean highest zoom level first.
+     */
+    private void submitDirectory(
+            WorldFileWriter writer,
+            DirectoryProgress progress,
+            TileDirectory directory,
+            long siblings) {
+        pendingDirectories.incrementAndGet();
+        Runnable walk =
+                () -> {
+                    try {
+                        listDirectory(writer, progress, directory);
+                    } finally {
+                        progress.release();
+                        directoryCompleted();
+                    }
+                };
+        int queued = queuedDirectories.incrementAndGet();
+        if (queued > options.walkQueueSize) {
+            queuedDirectories.decrementAndGet();
+            walk.run();
+            return;
+        }
+
+        try {
+            peakQueuedDirectories.accumulateAndGet(queued, Math::max);
+            long estimatedTiles = calculator.getEstimatedTiles(directory, writer.gridSet);
+            estimatedTiles = Math.min(estimatedTiles, siblings);
+            walkers.execute(
+                    new WalkTask(
+                            estimatedTiles,
+                            () -> {
+                                queuedDirectories.decrementAndGet();
+                                walk.run();
+                            }));
+        } catch (RuntimeException e) {
+            queuedDirectories.decrementAndGet();
+            progress.fail();
+            progress.release();
+            directoryCompleted();
+            throw e;
+        }
+    }
+
+    /** Highest number of directories waiting to be listed at the same time */
+    int getPeakQueuedDirectories() {
+        return peakQueuedDirectories.get();
+    }
+
+    private void directoryCompleted() {
+        if (pendingDirectories.decrementAndGet() == 0) discoveryDone.countDown();
+    }
+
+    /**
+     * Lists a directory following the layout: the tile directories get their tiles batched, the
+     * other ones get the sub-directories the layout expects tiles below submitted in turn
+     */
+    private void listDirectory(
+            WorldFileWriter writer, DirectoryProgress progress, TileDirectory directory) {
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.path)) {
+            if (calculator.isTileDirectory(directory)) {
+                listTiles(writer, progress, directory, stream);
+            } else {
+                listDirectories(writer, progress, directory, stream);
+            }
+            metrics.record(RunMetrics.Stage.WALK, System.nanoTime() - start);
+        } catch (NotDirectoryException e) {
+            // a file with a directory name, not checked upfront in StatMode.NEVER
+        } catch (IOException | RuntimeException e) {
+            // iteration failures come as an unchecked DirectoryIteratorException, and must not
+            // let the directory be recorded as completed
+            printer.err(
+                    "Failed to list directory " + directory.path + ". Error: " + e.getMessage());
+            metrics.add(RunMetrics.Stage.ERROR, 1);
+            progress.fail();
+        } catch (InterruptedException e) {
+            progress.fail();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits the sub-directories of a directory. They are held until the listing is complete, up
+     * to {@link RunOptions#listingLimit} entries, so that their number is known when prioritizing
+     * them.
+     */
+    private void listDirectories(
+            WorldFileWriter writer,
+            DirectoryProgress progress,
+            TileDirectory directory,
+            DirectoryStream<Path> stream)
+            throws IOException {
+        List<TileDirectory> children = new ArrayList<>();
+        List<DirectoryProgress> progresses = new ArrayList<>();
+        long found = 0;
+        try {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                TileDirectory child = calculator.getChildDirectory(directory, name);
+                // the filter is checked before the stat, it's just a name check
+                if (child == null || !writer.accepts(child) || !isDirectory(p, name)) continue;
+
+                DirectoryProgress childProgress = progress.child(name);
+                if (childProgress == null) {
+                    skippedDirectories.incrementAndGet();
+                    continue;
+                }
+                children.add(child);
+                progresses.add(childProgress);
+                found++;
+                if (children.size() >= options.listingLimit)
+                    submitDirectories(writer, children, progresses, found);
+            }
+        } finally {
+            // the directories found are walked even if the listing fails midway
+            submitDirectories(writer, children, progresses, found);
+        }
+    }
+
+    private void submitDirectories(
+            WorldFileWriter writer,
+            List<TileDirectory> children,
+            List<DirectoryProgress> progresses,
+            long siblings) {
+        try {
+            for (int i = 0; i < children.size(); i++) {
+                submitDirectory(writer, progresses.get(i), children.get(i), siblings);
+            }
+        } finally {
+            children.clear();
+            progresses.clear();
+        }
+    }
+
+    /**
+     * Batches the tiles of a tile directory. Unless {@link StatMode#ALWAYS} is used, the names are
+     * recognized by their extension alone, tiles are the bulk of the cache and checking their file
+     * type would cost a stat call each. For the same reason, when not overwriting, the existing
+     * world files are found in the same listing and the tiles having one are skipped right away.
+     * In change driven runs the modification times are read once per entry, while listing, and
+     * compared in memory.
+     *
+     * <p>Matching tiles and world files requires the whole listing, which is held in memory up to
+     * {@link RunOptions#listingLimit} entries. Larger directories are streamed instead: from there
+     * on the tiles are batched as they are listed, and those whose world file was not seen yet get
+     * it checked with a stat call. When world files are not checked, tiles are always streamed.
+     */
+    private void listTiles(
+            WorldFileWriter writer,
+            DirectoryProgress progress,
+            TileDirectory directory,
+            DirectoryStream<Path> stream)
+            throws InterruptedException, IOException {
+        boolean timed = options.isChangeDriven();
+        boolean checkWorldFiles = sink.isSidecar() && (!options.overwrite || options.newer);
+        boolean streaming = !checkWorldFiles;
+        // tiles held until the listing is complete, to be matched with the world files
+        List<String> tileNames = new ArrayList<>();
+        long[] tileTimes = new long[64];
+        // world file base names, with their modification time in change driven runs
+        Map<String, Long> worldFiles = checkWorldFiles ? new HashMap<>() : Collections.emptyMap();
+        TileBatch batch = new TileBatch(writer, progress, directory, options.batchSize);
+        for (Path p : stream) {
+            String name = p.getFileName().toString();
+            String extension = FilenameUtils.getExtension(name);
+            if (WORLD_EXTENSION.equals(extension)) {
+                if (checkWorldFiles && !streaming)
+                    worldFiles.put(FilenameUtils.getBaseName(name), timed ? getModified(p) : 0L);
+            } else if (TileExtensions.contains(extension)) {
+                long modified = 0;
+                if (timed) {
+                    BasicFileAttributes attributes = readAttributes(p);
+                    if (attributes == null) continue;
+                    if (options.statMode == StatMode.ALWAYS && !attributes.isRegularFile())
+                        continue;
+                    modified = attributes.lastModifiedTime().toMillis();
+                    if (modified <= options.since) {
+                        metrics.add(RunMetrics.Stage.SKIP, 1);
+                        continue;
+                    }
+                } else if (options.statMode == StatMode.ALWAYS && !Files.isRegularFile(p)) {
+                    continue;
+                }
+
+                if (streaming) {
+                    batch = addTile(batch, name, modified, worldFiles, true);
+                    continue;
+                }
+                if (tileNames.size() == tileTimes.length)
+                    tileTimes = Arrays.copyOf(tileTimes, tileTimes.length * 2);
+                tileTimes[tileNames.size()] = modified;
+                tileNames.add(name);
+                if (tileNames.size() + worldFiles.size() >= options.listingLimit) {
+                    // too many entries, batch the tiles listed so far and stream the others
+                    streaming = true;
+                    for (int i = 0; i < tileNames.size(); i++)
+                        batch = addTile(batch, tileNames.get(i), tileTimes[i], worldFiles, true);
+                    tileNames = Collections.emptyList();
+                }
+            }
+        }
+
+        for (int i = 0; i < tileNames.size(); i++)
+            batch = addTile(batch, tileNames.get(i), tileTimes[i], worldFiles, false);
+        if (batch.size() > 0) submitBatch(batch);
+    }
+
+    /**
+     * Adds a tile to the batch, unless it has an up to date world file, and submits the batch
+     * once full. Returns the batch the next tile should be added to.
+     */
+    private TileBatch addTile(
+            TileBatch batch, String name, long modified, Map<String, Long> worldFiles, boolean stat)
+            throws InterruptedException, IOException {
+        if (hasWorldFile(batch.directory, name, modified, worldFiles, stat)) {
+            metrics.add(RunMetrics.Stage.SKIP, 1);
+            return batch;
+        }
+
+        batch.tiles.add(name);
+        if (batch.size() < options.batchSize) return batch;
+        submitBatch(batch);
+        return new TileBatch(batch.writer, batch.progress, batch.directory, options.batchSize);
+    }
+
+    /**
+     * Checks if the tile has an up to date world file, looking it up among the listed ones, and
+     * then on disk if the listing was not complete
+     */
+    private boolean hasWorldFile(
+            TileDirectory directory,
+            String name,
+            long modified,
+            Map<String, Long> worldFiles,
+            boolean stat)
+            throws IOException {
+        if (!sink.isSidecar() || (options.overwrite && !options.newer)) return false;
+
+        String baseName = FilenameUtils.getBaseName(name);
+        Long worldFileTime = worldFiles.get(baseName);
+        if (worldFileTime == null && stat) {
+            Path world = directory.path.resolve(baseName + "." + WORLD_EXTENSION);
+            BasicFileAttributes attributes = readAttributes(world);
+            if (attributes != null) worldFileTime = attributes.lastModifiedTime().toMillis();
+        }
+        if (worldFileTime == null) return false;
+
+        // in change driven runs, stale world files are rewritten
+        return !options.newer || worldFileTime >= modified;
+    }
+
+    /** Reads the attributes of a listed entry, returns null if it's gone in the meantime */
+    private static BasicFileAttributes readAttributes(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static long getModified(Path p) throws IOException {
+        BasicFileAttributes attributes = readAttributes(p);
+        return attributes == null ? Long.MIN_VALUE : attributes.lastModifiedTime().toMillis();
+    }
+
+    private void submitBatch(TileBatch batch) throws InterruptedException {
+        if (inFlight != null) inFlight.acquire(batch.size());
+        batch.progress.acquire();
+        try {
+            tiles.put(batch);
+        } catch (InterruptedException e) {
+            batch.progress.release();
+            if (inFlight != null) inFlight.release(batch.size());
+            throw e;
+        }
+    }
+
+    /** Checks if an entry whose name the layout accepts is a directory, as per the stat mode */
+    private boolean isDirectory(Path p, String name) {
+        switch (options.statMode) {
+            case NEVER:
+                return true;
+            case AMBIGUOUS:
+                // tiles and their sidecars can be told apart by name
+                String extension = FilenameUtils.getExtension(name);
+                if (TileExtensions.contains(extension) || isSidecar(extension)) return false;
+                return Files.isDirectory(p);
+            default:
+                return Files.isDirectory(p);
+        }
+    }
+
+    private static boolean isSidecar(String extension) {
+        return WORLD_EXTENSION.equals(extension) || "prj".equals(extension);
+    }
+
+    /** Compute stage loop, turns tiles into world file contents */
+    private void computeStage() {
+        StringBuilder contents = new StringBuilder(128);
+        long[] coordinates = new long[3];
+        try {
+            TileBatch batch;
+            while ((batch = tiles.take()) != TileBatch.END) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String tile = batch.tiles.get(i);
+                    contents.setLength(0);
+                    try {
+                        long start = System.nanoTime();
+                        boolean valid =
+                                batch.writer.getCoordinates(batch.directory, tile, coordinates);
+                        long parsed = System.nanoTime();
+                        metrics.record(RunMetrics.Stage.PARSE, parsed - start);
+                        if (valid) {
+                            batch.setCoordinates(i, coordinates);
+                            batch.writer.render(coordinates, contents);
+                            metrics.record(RunMetrics.Stage.COMPUTE, System.nanoTime() - parsed);
+                        } else {
+                            metrics.add(RunMetrics.Stage.SKIP, 1);
+                        }
+                    } catch (RuntimeException e) {
+                        contents.setLength(0);
+                        metrics.add(RunMetrics.Stage.ERROR, 1);
+                        batch.progress.fail();
+                        printer.err(
+                                "Failed to compute world file for "
+                                        + batch.getTile(i)
+                                        + ". Error: "
+                                        + e.getMessage());
+                    }
+                    batch.setWorldFile(i, contents);
+                }
+                worldFiles.put(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Write stage loop, puts the world files on disk */
+    private void writeStage() {
+        try {
+            TileBatch batch;
+            while ((batch = worldFiles.take()) != TileBatch.END) {
+                int written = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.getWorldFileLength(i) > 0 && write(batch, i)) written++;
+                }
+                if (written > 0)
+                    metrics.written(batch.writer.gridSet.getName(), batch.directory.z, written);
+                batch.progress.release();
+                if (inFlight != null) inFlight.release(batch.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean write(TileBatch batch, int index) {
+        File tile = batch.getTile(index);
+        try {
+            long start = System.nanoTime();
+            if (!sink.write(batch, index)) {
+                // the same contents were already there
+                metrics.add(RunMetrics.Stage.SKIP, 1);
+                return false;
+            }
+            metrics.record(RunMetrics.Stage.WRITE, System.nanoTime() - start);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // a dead write thread would leave the queues full, and the run hanging
+            metrics.add(RunMetrics.Stage.ERROR, 1);
+            batch.progress.fail();
+            printer.err("Failed to write world file for " + tile + ". Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Builds the executor of a stage. Virtual threads are still pooled, the pool size caps the
+     * number of concurrent file system operations, and the pool queue holds the pending work
+     * without parking a thread for each item.
+     */
+    private static ExecutorService newExecutor(String stage, int threads, boolean virtual) {
+        if (virtual)
+            return Executors.newFixedThreadPool(threads, VirtualThreads.newFactory(stage + "-"));
+
+        return Executors.newFixedThreadPool(threads, newThreadFactory(stage));
+    }
+
+    /**
+     * Builds the walk stage executor, running the pending {@link WalkTask} largest first. The queue
+     * itself is unbounded, {@link #submitDirectory} caps the number of tasks put in it.
+     */
+    private static ExecutorService newWalkExecutor(int threads, boolean virtual) {
+        ThreadFactory factory =
+                virtual ? VirtualThreads.newFactory("walk-") : newThreadFactory("walk");
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new PriorityBlockingQueue<>(),
+                        factory);
+        // otherwise the first tasks would be handed to new threads, skipping the queue order
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    private static ThreadFactory newThreadFactory(String stage) {
+        AtomicInteger sequence = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, stage + "-" + sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
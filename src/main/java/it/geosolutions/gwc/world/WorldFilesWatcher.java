@@ -0,0 +1,374 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FilenameUtils;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSetBroker;
+
+/**
+ * Long running mode keeping the world files current as tiles get added to the cache. After an
+ * initial full run, the layer directory and the layout directories below it are watched for new
+ * entries, new directories get watched in turn, and new tiles are collected for a short delay and
+ * then get their world files written in a batch.
+ *
+ * <p>When the file system does not support watching, or when the watches cannot be registered
+ * (e.g., the operating system limit is hit), falls back on polling, running the pipeline at
+ * regular intervals on the tiles modified since the previous run.
+ */
+class WorldFilesWatcher {
+
+    /** Milliseconds each polling run goes back into the time span of the previous one */
+    static final long POLL_OVERLAP = 2000;
+
+    /** Maximum milliseconds between two checks of the stop flag while waiting for events */
+    static final long STOP_CHECK_INTERVAL = 100;
+
+    /** A watched directory, along with the writer for its gridset */
+    static class Watched {
+
+        final Path path;
+
+        /** Null for the layer directory, which has the gridset directories as children */
+        final WorldFileWriter writer;
+
+        /** Null for the layer directory */
+        final TileDirectory directory;
+
+        Watched(Path path, WorldFileWriter writer, TileDirectory directory) {
+            this.path = path;
+            this.writer = writer;
+            this.directory = directory;
+        }
+    }
+
+    final TileCalculator calculator;
+
+    final GridSetBroker broker;
+
+    final RunOptions options;
+
+    final Printer printer;
+
+    final GridSetRegistry registry;
+
+    final Map<WatchKey, Watched> watched = new HashMap<>();
+
+    /** Tiles waiting for their world file, by tile directory */
+    final Map<Watched, List<String>> pending = new LinkedHashMap<>();
+
+    volatile int pendingCount;
+
+    volatile long written;
+
+    volatile boolean stopped;
+
+    /** Released once the watcher has stopped, and the pending tiles got their world files */
+    final CountDownLatch finished = new CountDownLatch(1);
+
+    public WorldFilesWatcher(
+            TileCalculator calculator, GridSetBroker broker, RunOptions options, Printer printer) {
+        this.calculator = calculator;
+        this.broker = broker;
+        this.options = options;
+        this.printer = printer;
+        this.registry = new GridSetRegistry(options);
+    }
+
+    /** Stops watching or polling, returns within the batching delay, or the polling interval */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Stops watching, and waits for the tiles collected so far to get their world files, up to
+     * the given timeout. Returns false if the watcher did not finish in time.
+     */
+    public boolean stopAndFlush(long timeout, TimeUnit unit) throws InterruptedException {
+        stop();
+        return finished.await(timeout, unit);
+    }
+
+    /** Number of world files written while watching, the full runs are not included */
+    public long getWritten() {
+        return written;
+    }
+
+    /** Keeps the world files of the layer cache current, until stopped */
+    public void run(File cache) throws IOException, InterruptedException, ExecutionException {
+        try {
+            if (options.pollInterval > 0) poll(cache);
+            else watchOrPoll(cache);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void watchOrPoll(File cache)
+            throws IOException, InterruptedException, ExecutionException {
+        try (WatchService service = cache.toPath().getFileSystem().newWatchService()) {
+            // watches first, so that tiles added during the full run are not missed
+            registerCache(service, cache);
+            fullRun(cache, -1);
+            printer.print("Watching " + watched.size() + " directories for new tiles");
+            watch(service, cache);
+        } catch (UnsupportedOperationException | IOException e) {
+            printer.err(
+                    "Cannot watch "
+                            + cache
+                            + ", polling every "
+                            + RunOptions.DEFAULT_POLL_INTERVAL
+                            + " seconds instead. Error: "
+                            + e.getMessage());
+            watched.clear();
+            pending.clear();
+            pendingCount = 0;
+            options.pollInterval = RunOptions.DEFAULT_POLL_INTERVAL;
+            poll(cache);
+        }
+    }
+
+    private void watch(WatchService service, File cache)
+            throws IOException, InterruptedException, ExecutionException {
+        long flushTime = Long.MAX_VALUE;
+        while (!stopped) {
+            long wait = Math.min(options.watchDelay, STOP_CHECK_INTERVAL);
+            WatchKey key = service.poll(wait, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                Watched parent = watched.get(key);
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) overflow = true;
+                    else if (parent != null) created(service, parent, (Path) event.context());
+                }
+                if (!key.reset()) watched.remove(key);
+                if (overflow) {
+                    printer.err("Too many file system events, scanning the whole cache");
+                    catchUp(service, cache);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (pendingCount > 0 && flushTime == Long.MAX_VALUE)
+                flushTime = now + options.watchDelay;
+            if (pendingCount >= options.batchSize || now >= flushTime) {
+                flush();
+                flushTime = Long.MAX_VALUE;
+            }
+        }
+        flush();
+    }
+
+    /** Watches the layer directory, and the layout directories below it */
+    void registerCache(WatchService service, File cache) throws IOException {
+        register(service, new Watched(cache.toPath(), null, null));
+        File[] gridsetDirectories = cache.listFiles(f -> f.isDirectory());
+        if (gridsetDirectories != null) {
+            for (File gridsetDirectory : gridsetDirectories) {
+                try {
+                    registerGridset(service, gridsetDirectory, false);
+                } catch (NoSuchFileException e) {
+                    // removed while walking the cache
+                }
+            }
+        }
+    }
+
+    /**
+     * Catches up after events got lost: the directories created in the meantime are not watched
+     * yet, so the whole tree is registered again (registering an already watched directory is a
+     * no-op), then a full scan writes the missing world files.
+     */
+    void catchUp(WatchService service, File cache)
+            throws IOException, InterruptedException, ExecutionException {
+        registerCache(service, cache);
+        fullRun(cache, -1);
+    }
+
+    /** Handles a new entry in a watched directory */
+    private void created(WatchService service, Watched parent, Path name) throws IOException {
+        Path path = parent.path.resolve(name);
+        if (parent.directory == null) {
+            if (Files.isDirectory(path)) registerGridset(service, path.toFile(), true);
+            return;
+        }
+
+        String fileName = name.toString();
+        if (calculator.isTileDirectory(parent.directory)) {
+            if (TileExtensions.contains(FilenameUtils.getExtension(fileName)))
+                addPending(parent, fileName);
+            return;
+        }
+
+        TileDirectory child = calculator.getChildDirectory(parent.directory, fileName);
+        if (child == null || !parent.writer.accepts(child) || !Files.isDirectory(path)) return;
+        try {
+            registerTree(service, parent.writer, child, true);
+        } catch (NoSuchFileException e) {
+            // removed right after being created, nothing to watch
+        }
+    }
+
+    private void registerGridset(WatchService service, File gridsetDirectory, boolean created)
+            throws IOException {
+        GridSet gridSet = calculator.getGridset(gridsetDirectory, broker);
+        if (gridSet == null) {
+            printer.err("Unknown gridset, skipping directory " + gridsetDirectory);
+            return;
+        }
+        TileFilter filter = registry.get(gridSet).filter;
+        TileDirectory root = calculator.getGridsetDirectory(gridsetDirectory.toPath());
+        if (filter != null && !filter.accepts(root)) return;
+
+        WorldFileWriter writer;
+        try {
+            writer = registry.newWriter(calculator, gridSet, gridsetDirectory);
+        } catch (Exception e) {
+            printer.err(
+                    "Failed to setup world file writer for "
+                            + gridsetDirectory
+                            + ". Error: "
+                            + e.getMessage());
+            return;
+        }
+        registerTree(service, writer, root, created);
+    }
+
+    /**
+     * Watches a layout directory and the ones below it. For directories just created, the tiles
+     * already in them are picked up too, as they might have been written before the watch was in
+     * place.
+     */
+    private void registerTree(
+            WatchService service, WorldFileWriter writer, TileDirectory directory, boolean created)
+            throws IOException {
+        Watched target = new Watched(directory.path, writer, directory);
+        register(service, target);
+        boolean tileDirectory = calculator.isTileDirectory(directory);
+        if (tileDirectory && !created) return;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.path)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (tileDirectory) {
+                    if (TileExtensions.contains(FilenameUtils.getExtension(name)))
+                        addPending(target, name);
+                } else {
+                    TileDirectory child = calculator.getChildDirectory(directory, name);
+                    if (child != null && writer.accepts(child) && Files.isDirectory(p))
+                        registerTree(service, writer, child, created);
+                }
+            }
+        }
+    }
+
+    private void register(WatchService service, Watched target) throws IOException {
+        WatchKey key = target.path.register(service, ENTRY_CREATE);
+        watched.put(key, target);
+    }
+
+    private void addPending(Watched directory, String tile) {
+        pending.computeIfAbsent(directory, k -> new ArrayList<>()).add(tile);
+        pendingCount++;
+    }
+
+    /** Writes the world files of the pending tiles */
+    private void flush() {
+        StringBuilder contents = new StringBuilder(128);
+        long[] coordinates = new long[3];
+        long count = 0;
+        for (Map.Entry<Watched, List<String>> entry : pending.entrySet()) {
+            WorldFileWriter writer = entry.getKey().writer;
+            TileDirectory directory = entry.getKey().directory;
+            for (String name : entry.getValue()) {
+                contents.setLength(0);
+                if (!writer.getWorldFile(directory, name, coordinates, contents)) continue;
+
+                File tile = directory.getTile(name);
+                byte[] bytes = contents.toString().getBytes(StandardCharsets.US_ASCII);
+                try {
+                    if (writer.write(tile, bytes, 0, bytes.length)) count++;
+                } catch (IOException e) {
+                    printer.err(
+                            "Failed to write world file for "
+                                    + tile
+                                    + ". Error: "
+                                    + e.getMessage());
+                }
+            }
+        }
+        pending.clear();
+        pendingCount = 0;
+        if (count > 0) {
+            written += count;
+            printer.print("World files generated: " + count + " (total " + written + ")");
+        }
+    }
+
+    /** Runs the pipeline at regular intervals, on the tiles modified since the previous run */
+    private void poll(File cache) throws InterruptedException, ExecutionException {
+        long since = -1;
+        while (!stopped) {
+            long start = System.currentTimeMillis();
+            fullRun(cache, since);
+            // overlap the runs a bit, modification times can be coarse or from a skewed clock
+            since = start - POLL_OVERLAP;
+
+            long wakeup = start + TimeUnit.SECONDS.toMillis(options.pollInterval);
+            while (!stopped && System.currentTimeMillis() < wakeup) {
+                long now = System.currentTimeMillis();
+                Thread.sleep(Math.max(1, Math.min(options.watchDelay, wakeup - now)));
+            }
+        }
+    }
+
+    /** Runs the pipeline over the whole cache, optionally on the tiles modified after a time */
+    private void fullRun(File cache, long since)
+            throws InterruptedException, ExecutionException {
+        long previous = options.since;
+        if (since >= 0) options.since = Math.max(previous, since);
+        try {
+            WorldFilesPipeline pipeline =
+                    new WorldFilesPipeline(calculator, broker, options, printer);
+            long count = pipeline.run(cache);
+            if (count > 0) printer.print("World files generated by the scan: " + count);
+        } finally {
+            options.since = previous;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package it.geosolutions.gwc.world;
 
 import java.io.File;
+import java.nio.file.Path;
 import org.apache.commons.io.FilenameUtils;
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
@@ -59,4 +60,34 @@ public class XYZTileCalculator implements TileCalculator {
             return null;
         }
     }
+
+    @Override
+    public TileDirectory getTileDirectory(Path directory) {
+        return TileDirectory.parseZoomAndColumn(directory);
+    }
+
+    /** Below the gridset directory there are the zoom level ones, and then the column ones */
+    @Override
+    public TileDirectory getChildDirectory(TileDirectory parent, String name) {
+        return TileDirectory.getZoomOrColumn(parent, name);
+    }
+
+    @Override
+    public boolean isTileDirectory(TileDirectory directory) {
+        return directory.x != TileDirectory.UNKNOWN;
+    }
+
+    @Override
+    public boolean getCoordinates(
+            TileDirectory directory, CharSequence fileName, GridSet gridSet, long[] coordinates) {
+        long y = directory.parseRow(fileName);
+        if (y == TileNames.INVALID) return false;
+        int z = directory.z;
+        if (z >= gridSet.getNumLevels()) return false;
+
+        coordinates[0] = directory.x;
+        coordinates[1] = gridSet.getGrid(z).getNumTilesHigh() - y - 1;
+        coordinates[2] = z;
+        return true;
+    }
 }
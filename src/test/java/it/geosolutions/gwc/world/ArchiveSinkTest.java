@@ -0,0 +1,161 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static it.geosolutions.gwc.world.WorldFilesPipelineTest.createTile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSetBroker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveSinkTest {
+
+    static final String WORLD = "0.3515625\n0\n0\n-0.3515625\n-90.0\n90.0\n";
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    @Test
+    public void testZip() throws Exception {
+        File archive = new File(temp.getRoot(), "bundle.zip");
+        Map<String, String> entries = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(archive(archive))) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                String contents = IOUtils.toString(zip.getInputStream(entry), UTF_8);
+                entries.put(entry.getName(), contents);
+            }
+        }
+        assertEntries(entries);
+    }
+
+    @Test
+    public void testTar() throws Exception {
+        File archive = new File(temp.getRoot(), "bundle.tar");
+        try (InputStream input = new FileInputStream(archive(archive))) {
+            assertEntries(readTar(input));
+        }
+        assertEquals(0, archive.length() % 512);
+    }
+
+    @Test
+    public void testTarGz() throws Exception {
+        File archive = new File(temp.getRoot(), "bundle.tgz");
+        try (InputStream input = new GZIPInputStream(new FileInputStream(archive(archive)))) {
+            assertEntries(readTar(input));
+        }
+    }
+
+    @Test
+    public void testLongNames() throws Exception {
+        File archive = new File(temp.getRoot(), "bundle.tar");
+        File layer = temp.newFolder("layer");
+        String params = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        createTile(layer, "EPSG:4326/png/" + params + "/1/0/0.png");
+        RunOptions options = new RunOptions();
+        options.archive = archive;
+        runPipeline(new BlobTileCalculator(), layer, options);
+
+        try (InputStream input = new FileInputStream(archive)) {
+            String base = "layer/EPSG:4326/png/" + params + "/1/0/0.";
+            Map<String, String> entries = readTar(input);
+            assertEquals(
+                    Arrays.asList(base + "png", base + "wld"),
+                    Arrays.asList(entries.keySet().toArray()));
+        }
+    }
+
+    private File archive(File archive) throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_4326_01/00_00/01_01.png");
+        createTile(layer, "EPSG_4326_01/00_00/00_00.png");
+        createTile(layer, "EPSG_4326_02/01_00/03_01.png");
+
+        RunOptions options = new RunOptions();
+        options.archive = archive;
+        options.minZoom = options.maxZoom = 1;
+        options.prj = true;
+        assertEquals(2, runPipeline(new GWCTileCalculator(), layer, options));
+        // nothing written in the cache
+        assertFalse(new File(layer, "EPSG_4326_01/00_00/01_01.wld").exists());
+        assertFalse(new File(layer, "EPSG_4326_01/00_00/01_01.prj").exists());
+        return archive;
+    }
+
+    private void assertEntries(Map<String, String> entries) {
+        assertEquals(6, entries.size());
+        assertEquals("\0", entries.get("layer/EPSG_4326_01/00_00/01_01.png"));
+        assertEquals(WORLD, entries.get("layer/EPSG_4326_01/00_00/01_01.wld"));
+        assertEquals(
+                entries.get("layer/EPSG_4326_01/00_00/00_00.prj"),
+                entries.get("layer/EPSG_4326_01/00_00/01_01.prj"));
+        assertFalse(entries.containsKey("layer/EPSG_4326_02/01_00/03_01.png"));
+    }
+
+    private long runPipeline(TileCalculator calculator, File layer, RunOptions options)
+            throws Exception {
+        return new WorldFilesPipeline(calculator, broker, options, Printer.QUIET).run(layer);
+    }
+
+    /** Reads the entries of a ustar archive, checking the header checksums */
+    static Map<String, String> readTar(InputStream input) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        DataInputStream data = new DataInputStream(input);
+        byte[] header = new byte[512];
+        while (true) {
+            data.readFully(header);
+            if (header[0] == 0) break;
+            long checksum = 0;
+            for (int i = 0; i < header.length; i++)
+                checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+            assertEquals(checksum, Long.parseLong(field(header, 148, 7), 8));
+
+            String name = field(header, 0, 100);
+            String prefix = field(header, 345, 155);
+            if (!prefix.isEmpty()) name = prefix + "/" + name;
+            int size = Integer.parseInt(field(header, 124, 11), 8);
+            byte[] contents = new byte[(size + 511) / 512 * 512];
+            data.readFully(contents);
+            entries.put(name, new String(contents, 0, size, UTF_8));
+        }
+        return entries;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, UTF_8).trim();
+    }
+}
@@ -18,9 +18,12 @@ package it.geosolutions.gwc.world;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import org.geowebcache.config.DefaultGridsets;
 import org.geowebcache.grid.GridSet;
@@ -69,4 +72,31 @@ public class BlobTileCalculatorTest {
     public void testInvalidStructure() {
         assertNull(tileCalculator.getCoordinates(new File("/EPSG_900913/01_02.png"), null));
     }
+
+    @Test
+    public void testTraversal() {
+        TileDirectory root = tileCalculator.getGridsetDirectory(Paths.get("/EPSG%3A900913"));
+        TileDirectory format = tileCalculator.getChildDirectory(root, "png");
+        assertFalse(tileCalculator.isTileDirectory(format));
+
+        // without parameters
+        TileDirectory zoom = tileCalculator.getChildDirectory(format, "3");
+        TileDirectory column = tileCalculator.getChildDirectory(zoom, "1");
+        assertTrue(tileCalculator.isTileDirectory(column));
+        long[] coordinates = new long[3];
+        assertTrue(tileCalculator.getCoordinates(column, "2.png", gridSet, coordinates));
+        assertArrayEquals(new long[] {1, 2, 3}, coordinates);
+
+        // with a parameters id
+        TileDirectory parameters = tileCalculator.getChildDirectory(format, "abcdef0123");
+        assertFalse(tileCalculator.isTileDirectory(parameters));
+        assertNull(tileCalculator.getChildDirectory(parameters, "foo"));
+        zoom = tileCalculator.getChildDirectory(parameters, "4");
+        assertEquals(4, zoom.z);
+        column = tileCalculator.getChildDirectory(zoom, "5");
+        assertTrue(tileCalculator.isTileDirectory(column));
+        assertTrue(tileCalculator.getCoordinates(column, "6.jpeg", gridSet, coordinates));
+        assertArrayEquals(new long[] {5, 6, 4}, coordinates);
+        assertNull(tileCalculator.getChildDirectory(zoom, "abc"));
+    }
 }
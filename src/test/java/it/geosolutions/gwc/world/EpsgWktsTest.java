@@ -0,0 +1,48 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Properties;
+import org.junit.Test;
+
+public class EpsgWktsTest {
+
+    @Test
+    public void testSameAsProperties() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream is = getClass().getResourceAsStream(EpsgWkts.RESOURCE)) {
+            properties.load(is);
+        }
+        assertTrue(properties.size() > 0);
+        for (String code : properties.stringPropertyNames()) {
+            assertEquals(properties.getProperty(code), EpsgWkts.get(Integer.parseInt(code)));
+        }
+    }
+
+    @Test
+    public void testMissing() {
+        assertNull(EpsgWkts.get(4326));
+        // prefix of a listed code
+        assertNull(EpsgWkts.get(9009));
+        assertTrue(EpsgWkts.get(900913).startsWith("PROJCS["));
+    }
+}
@@ -19,8 +19,10 @@ package it.geosolutions.gwc.world;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
 import org.junit.Test;
 
@@ -65,4 +67,55 @@ public class GWCTileCalculatorTest {
     public void testInvalidStructure() {
         assertNull(calculator.getCoordinates(new File("/EPSG_900913/01_02.png"), null));
     }
+
+    @Test
+    public void testNonNumericNames() {
+        assertNull(calculator.getCoordinates(new File("/EPSG_900913_03/foo_bar/aa_02.png"), null));
+        assertNull(calculator.getCoordinates(new File("/EPSG_900913_zz/foo_bar/01_02.png"), null));
+        assertNull(calculator.getCoordinates(new File("/EPSG_900913_03/foo_bar/1_2_3.png"), null));
+    }
+
+    @Test
+    public void testTileDirectory() {
+        TileDirectory directory =
+                calculator.getTileDirectory(Paths.get("/layer/EPSG_4326_12_abcdef/01_02"));
+        assertEquals(12, directory.z);
+        long[] coordinates = new long[3];
+        assertTrue(calculator.getCoordinates(directory, "0034_0056.png", null, coordinates));
+        assertArrayEquals(new long[] {34, 56, 12}, coordinates);
+        assertFalse(calculator.getCoordinates(directory, "0034_0056_.png", null, coordinates));
+        assertFalse(calculator.getCoordinates(directory, "_0056.png", null, coordinates));
+
+        assertEquals(5, calculator.getTileDirectory(Paths.get("WebMercatorQuad_05/00_00")).z);
+        assertEquals(
+                TileDirectory.UNKNOWN,
+                calculator.getTileDirectory(Paths.get("WebMercatorQuad/00_00")).z);
+    }
+
+    @Test
+    public void testTraversal() {
+        TileDirectory root = calculator.getGridsetDirectory(Paths.get("/layer/EPSG_4326_07"));
+        assertFalse(calculator.isTileDirectory(root));
+        TileDirectory directory = calculator.getChildDirectory(root, "00_01");
+        assertEquals(7, directory.z);
+        assertTrue(calculator.isTileDirectory(directory));
+        assertNull(calculator.getChildDirectory(directory, "00_01"));
+
+        // no zoom level, no tiles below
+        root = calculator.getGridsetDirectory(Paths.get("/layer/EPSG_4326"));
+        assertNull(calculator.getChildDirectory(root, "00_01"));
+    }
+
+    @Test
+    public void testEstimatedTiles() {
+        GridSet gridSet = broker.get("EPSG:900913");
+        TileDirectory root = calculator.getGridsetDirectory(Paths.get("/layer/EPSG_900913_03"));
+        assertEquals(64, calculator.getEstimatedTiles(root, gridSet));
+        // blocks of 4x4 tiles at level 3
+        TileDirectory directory = calculator.getChildDirectory(root, "00_01");
+        assertEquals(16, calculator.getEstimatedTiles(directory, gridSet));
+        root = calculator.getGridsetDirectory(Paths.get("/layer/EPSG_900913_00"));
+        directory = calculator.getChildDirectory(root, "0_0");
+        assertEquals(1, calculator.getEstimatedTiles(directory, gridSet));
+    }
 }
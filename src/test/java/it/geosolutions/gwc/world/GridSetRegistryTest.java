@@ -0,0 +1,69 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSet;
+import org.junit.Test;
+
+public class GridSetRegistryTest {
+
+    DefaultGridsets gridsets = new DefaultGridsets(true, true);
+
+    @Test
+    public void testSharedState() throws Exception {
+        RunOptions options = new RunOptions();
+        options.prj = true;
+        options.maxZoom = 5;
+        GridSetRegistry registry = new GridSetRegistry(options);
+        GridSet gridSet = gridsets.worldEpsg3857();
+        GWCTileCalculator calculator = new GWCTileCalculator();
+
+        // parameter combinations of the same gridset and zoom level
+        WorldFileWriter w1 = registry.newWriter(calculator, gridSet, new File("EPSG_900913_05_a"));
+        WorldFileWriter w2 = registry.newWriter(calculator, gridSet, new File("EPSG_900913_05_b"));
+        assertNotSame(w1, w2);
+        assertSame(w1.model, w2.model);
+        assertSame(w1.filter, w2.filter);
+        assertEquals(5, w1.filter.maxZoom);
+        assertSame(w1.projection.wkt, w2.projection.wkt);
+        assertEquals(EpsgWkts.get(900913), new String(w1.projection.wkt, UTF_8));
+
+        // another gridset with the same CRS
+        GridSet other = gridsets.webMercatorQuad();
+        WorldFileWriter w3 = registry.newWriter(calculator, other, new File("WebMercatorQuad_05"));
+        assertNotSame(w1.model, w3.model);
+        assertSame(other, w3.model.gridSet);
+    }
+
+    @Test
+    public void testNoFilter() throws Exception {
+        GridSetRegistry registry = new GridSetRegistry(new RunOptions());
+        GridSet gridSet = gridsets.worldEpsg4326();
+        WorldFileWriter writer =
+                registry.newWriter(new XYZTileCalculator(), gridSet, new File("EPSG_4326"));
+        assertNull(writer.filter);
+        assertNull(writer.projection);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSetBroker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MBTilesExporterTest {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    @Test
+    public void testExport() throws Exception {
+        int[][] tiles = {{0, 0, 0}, {1, 0, 1}, {1, 1, 0}, {2, 3, 3}};
+        File mbtiles = createMBTiles("jpg", tiles);
+        File target = temp.newFolder("export");
+
+        RunOptions options = new RunOptions();
+        options.batchSize = 2;
+        options.queueSize = 1;
+        options.maxZoom = 1;
+        MBTilesExporter exporter = new MBTilesExporter(broker, options, Printer.QUIET);
+        assertEquals(3, exporter.run(mbtiles, target));
+
+        // tms layout, rows counted from the bottom as in the MBTiles file
+        File tile = new File(target, "EPSG_900913/1/0/1.jpg");
+        assertArrayEquals(new byte[] {1, 0, 1}, Files.readAllBytes(tile.toPath()));
+        assertTrue(new File(target, "EPSG_900913/0/0/0.wld").exists());
+        assertFalse(new File(target, "EPSG_900913/2").exists());
+
+        // same world file as processing the exported directory
+        File world = new File(target, "EPSG_900913/1/0/1.wld");
+        WorldFileWriter writer =
+                new WorldFileWriter(
+                        broker.get("EPSG:900913"), new TMSTileCalculator(), false, false);
+        assertEquals(writer.getWorldFile(tile), FileUtils.readFileToString(world, UTF_8));
+    }
+
+    @Test
+    public void testNoOverwrite() throws Exception {
+        File mbtiles = createMBTiles(null, new int[][] {{0, 0, 0}, {1, 0, 1}, {1, 1, 1}});
+        File target = temp.newFolder("export");
+        File world = new File(target, "EPSG_900913/1/0/1.wld");
+        FileUtils.writeStringToFile(world, "existing", UTF_8);
+        File tile = new File(target, "EPSG_900913/1/1/1.png");
+        FileUtils.writeStringToFile(tile, "existing", UTF_8);
+
+        // missing tiles are exported even if their world file is there, and the other way round
+        RunOptions options = new RunOptions();
+        MBTilesExporter exporter = new MBTilesExporter(broker, options, Printer.QUIET);
+        assertEquals(3, exporter.run(mbtiles, target));
+        assertEquals("existing", FileUtils.readFileToString(world, UTF_8));
+        assertTrue(new File(target, "EPSG_900913/1/0/1.png").exists());
+        assertEquals("existing", FileUtils.readFileToString(tile, UTF_8));
+        assertTrue(new File(target, "EPSG_900913/1/1/1.wld").exists());
+        assertEquals(0, new MBTilesExporter(broker, options, Printer.QUIET).run(mbtiles, target));
+    }
+
+    @Test
+    public void testOverwriteChanged() throws Exception {
+        File mbtiles = createMBTiles(null, new int[][] {{0, 0, 0}, {1, 0, 1}});
+        File target = temp.newFolder("export");
+        RunOptions options = new RunOptions();
+        assertEquals(2, new MBTilesExporter(broker, options, Printer.QUIET).run(mbtiles, target));
+
+        // a changed tile counts as written, even if its world file is the same
+        File tile = new File(target, "EPSG_900913/1/0/1.png");
+        FileUtils.writeStringToFile(tile, "changed", UTF_8);
+        options.overwrite = true;
+        options.overwriteChanged = true;
+        MBTilesExporter exporter = new MBTilesExporter(broker, options, Printer.QUIET);
+        assertEquals(1, exporter.run(mbtiles, target));
+        assertEquals(1, exporter.getMetrics().getCount(RunMetrics.Stage.SKIP));
+        assertArrayEquals(new byte[] {1, 0, 1}, Files.readAllBytes(tile.toPath()));
+    }
+
+    @Test
+    public void testInvalidTiles() throws Exception {
+        // a zoom level the gridset does not have, does not stop the export
+        File mbtiles = createMBTiles(null, new int[][] {{0, 0, 0}, {40, 0, 0}, {1, 0, 1}});
+        File target = temp.newFolder("export");
+        RunOptions options = new RunOptions();
+        options.batchSize = 1;
+        options.queueSize = 1;
+        options.ioThreads = 1;
+        MBTilesExporter exporter = new MBTilesExporter(broker, options, Printer.QUIET);
+        assertEquals(2, exporter.run(mbtiles, target));
+        assertEquals(1, exporter.getMetrics().getCount(RunMetrics.Stage.ERROR));
+    }
+
+    /** Creates an MBTiles file with the given {z, x, y} tiles, containing their coordinates */
+    private File createMBTiles(String format, int[][] tiles) throws Exception {
+        File file = new File(temp.getRoot(), "test.mbtiles");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            try (Statement st = connection.createStatement()) {
+                st.execute("CREATE TABLE metadata (name text, value text)");
+                st.execute(
+                        "CREATE TABLE tiles (zoom_level integer, tile_column integer, "
+                                + "tile_row integer, tile_data blob)");
+                if (format != null)
+                    st.execute("INSERT INTO metadata VALUES ('format', '" + format + "')");
+            }
+            String sql = "INSERT INTO tiles VALUES (?, ?, ?, ?)";
+            try (PreparedStatement st = connection.prepareStatement(sql)) {
+                for (int[] tile : tiles) {
+                    st.setInt(1, tile[0]);
+                    st.setInt(2, tile[1]);
+                    st.setInt(3, tile[2]);
+                    st.setBytes(4, new byte[] {(byte) tile[0], (byte) tile[1], (byte) tile[2]});
+                    st.executeUpdate();
+                }
+            }
+        }
+        return file;
+    }
+}
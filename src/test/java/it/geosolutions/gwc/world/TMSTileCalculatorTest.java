@@ -19,8 +19,10 @@ package it.geosolutions.gwc.world;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import org.geowebcache.config.DefaultGridsets;
 import org.geowebcache.grid.GridSet;
@@ -72,4 +74,15 @@ public class TMSTileCalculatorTest {
     public void testInvalidStructure() {
         assertNull(tileCalculator.getCoordinates(new File("/EPSG_900913/01_02.png"), null));
     }
+
+    @Test
+    public void testTraversal() {
+        TileDirectory root = tileCalculator.getGridsetDirectory(Paths.get("/EPSG_900913"));
+        TileDirectory column =
+                tileCalculator.getChildDirectory(tileCalculator.getChildDirectory(root, "3"), "1");
+        assertTrue(tileCalculator.isTileDirectory(column));
+        long[] coordinates = new long[3];
+        assertTrue(tileCalculator.getCoordinates(column, "2.png", gridSet, coordinates));
+        assertArrayEquals(new long[] {1, 2, 3}, coordinates);
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSet;
+import org.junit.Test;
+
+public class TileFilterTest {
+
+    GridSet gridSet = new DefaultGridsets(true, true).worldEpsg3857();
+
+    /** The north-east quarter of the world */
+    BoundingBox northEast = new BoundingBox(1, 1, 20037508, 20037508);
+
+    @Test
+    public void testZooms() {
+        TileFilter filter = new TileFilter(gridSet, 2, 4, null);
+        assertFalse(filter.accepts(new TileDirectory(Paths.get("1"), 1, TileDirectory.UNKNOWN)));
+        assertTrue(filter.accepts(new TileDirectory(Paths.get("2"), 2, TileDirectory.UNKNOWN)));
+        assertTrue(filter.accepts(new TileDirectory(Paths.get("4/3"), 4, 3)));
+        assertFalse(filter.accepts(new TileDirectory(Paths.get("5/3"), 5, 3)));
+        // unknown zoom level, cannot tell yet
+        assertTrue(filter.accepts(new TileDirectory(Paths.get("png"), -1, -1)));
+
+        assertTrue(filter.accepts(new long[] {0, 0, 3}));
+        assertFalse(filter.accepts(new long[] {0, 0, 5}));
+    }
+
+    @Test
+    public void testBoundingBox() {
+        TileFilter filter = new TileFilter(gridSet, 0, Integer.MAX_VALUE, northEast);
+        assertTrue(filter.accepts(new TileDirectory(Paths.get("1/1"), 1, 1)));
+        assertFalse(filter.accepts(new TileDirectory(Paths.get("1/0"), 1, 0)));
+        assertTrue(filter.accepts(new TileDirectory(Paths.get("2/3"), 2, 3)));
+        assertFalse(filter.accepts(new TileDirectory(Paths.get("2/1"), 2, 1)));
+
+        // GWC internal rows grow northwards
+        assertTrue(filter.accepts(new long[] {1, 1, 1}));
+        assertFalse(filter.accepts(new long[] {1, 0, 1}));
+        assertTrue(filter.accepts(new long[] {2, 3, 2}));
+        assertFalse(filter.accepts(new long[] {2, 1, 2}));
+    }
+
+    @Test
+    public void testOutsideGridset() {
+        BoundingBox outside = new BoundingBox(30000000, 30000000, 40000000, 40000000);
+        TileFilter filter = new TileFilter(gridSet, 0, Integer.MAX_VALUE, outside);
+        assertFalse(filter.accepts(new TileDirectory(Paths.get("0"), 0, TileDirectory.UNKNOWN)));
+        assertFalse(filter.accepts(new long[] {0, 0, 0}));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static it.geosolutions.gwc.world.WorldFilesPipelineTest.createTile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorldFileIndexTest {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File layer = temp.newFolder("layer");
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                createTile(layer, "EPSG_900913/2/" + x + "/" + y + ".png");
+            }
+        }
+        createTile(layer, "EPSG_4326/0/1/0.png");
+        // same gridset, different parameters, the tile is indexed once
+        createTile(layer, "EPSG_4326_abcdef/0/1/0.png");
+
+        RunOptions options = new RunOptions();
+        options.index = new File(temp.getRoot(), "world.idx");
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        assertEquals(18, pipeline.run(layer));
+        assertTrue(pipeline.isComplete());
+        assertFalse(new File(layer, "EPSG_900913/2/0/0.wld").exists());
+
+        try (WorldFileIndex index = WorldFileIndex.open(options.index)) {
+            assertEquals(17, index.size());
+            assertEquals(900913, (int) index.srids.get("EPSG:900913"));
+
+            GridSet gridSet = broker.get("EPSG:900913");
+            double[] actual = new double[6];
+            for (int x = 0; x < 4; x++) {
+                for (int y = 0; y < 4; y++) {
+                    assertTrue(index.get("EPSG:900913", 2, x, y, actual));
+                    assertArrayEquals(getReferenceParameters(gridSet, x, y, 2), actual, 0);
+                }
+            }
+            assertTrue(index.get("EPSG:4326", 0, 1, 0, actual));
+            assertEquals(0, actual[4], 0);
+            assertEquals(90, actual[5], 0);
+
+            assertFalse(index.get("EPSG:900913", 2, 4, 0, actual));
+            assertFalse(index.get("EPSG:900913", 3, 0, 0, actual));
+            assertFalse(index.get("EPSG:3857", 2, 0, 0, actual));
+        }
+    }
+
+    @Test
+    public void testSpilledRuns() throws Exception {
+        GridSet gridSet = broker.get("EPSG:900913");
+        WorldFileWriter writer =
+                new WorldFileWriter(gridSet, new XYZTileCalculator(), false, false);
+        File file = new File(temp.getRoot(), "world.idx");
+        // tiny runs, so that most keys go through the temporary file
+        IndexSink sink = new IndexSink(file, 4);
+        List<long[]> tiles = new ArrayList<>();
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                tiles.add(new long[] {x, y, 3});
+                if ((x + y) % 5 == 0) tiles.add(new long[] {x, y, 3});
+            }
+        }
+        Collections.shuffle(tiles, new Random(0));
+        for (long[] tile : tiles) {
+            TileBatch batch = new TileBatch(writer, null, null, 1);
+            batch.tiles.add("tile");
+            batch.setCoordinates(0, tile);
+            sink.write(batch, 0);
+        }
+        sink.close();
+        assertEquals(
+                Collections.singletonList("world.idx"), Arrays.asList(temp.getRoot().list()));
+
+        try (WorldFileIndex index = WorldFileIndex.open(file)) {
+            assertEquals(64, index.size());
+            double[] actual = new double[6];
+            for (int x = 0; x < 8; x++) {
+                for (int y = 0; y < 8; y++) {
+                    assertTrue(index.get("EPSG:900913", 3, x, y, actual));
+                    assertArrayEquals(getReferenceParameters(gridSet, x, y, 3), actual, 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCloseRemovesTemporary() throws Exception {
+        GridSet gridSet = broker.get("EPSG:900913");
+        WorldFileWriter writer =
+                new WorldFileWriter(gridSet, new XYZTileCalculator(), false, false);
+        // a non empty directory in place of the index, cannot be replaced
+        File file = new File(temp.getRoot(), "world.idx");
+        assertTrue(new File(file, "child").mkdirs());
+        IndexSink sink = new IndexSink(file, 4);
+        for (int x = 0; x < 8; x++) {
+            TileBatch batch = new TileBatch(writer, null, null, 1);
+            batch.tiles.add("tile");
+            batch.setCoordinates(0, new long[] {x, 0, 3});
+            sink.write(batch, 0);
+        }
+        try {
+            sink.close();
+            fail("The index directory should not have been replaced");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(
+                Collections.singletonList("world.idx"), Arrays.asList(temp.getRoot().list()));
+    }
+
+    @Test
+    public void testParametersMatchWorldFile() throws Exception {
+        GridSet gridSet = broker.get("EPSG:4326");
+        WorldFileModel model = new WorldFileModel(gridSet);
+        double[] parameters = new double[6];
+        model.getParameters(5, 3, 3, parameters);
+        StringBuilder sb = new StringBuilder();
+        model.render(5, 3, 3, sb);
+        String[] lines = sb.toString().split("\n");
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Double.parseDouble(lines[i]), parameters[i], 0);
+        }
+    }
+
+    /** The world file parameters as computed straight from the gridset bounds */
+    private double[] getReferenceParameters(GridSet gridSet, long x, long y, int z) {
+        BoundingBox bbox = gridSet.boundsFromIndex(new long[] {x, y, z});
+        double scaleX = bbox.getWidth() / gridSet.getTileWidth();
+        double scaleY = bbox.getHeight() / gridSet.getTileHeight();
+        return new double[] {scaleX, 0, 0, -scaleY, bbox.getMinX(), bbox.getMaxY()};
+    }
+}
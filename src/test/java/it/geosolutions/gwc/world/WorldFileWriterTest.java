@@ -19,7 +19,11 @@ package it.geosolutions.gwc.world;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
 import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.Grid;
 import org.geowebcache.grid.GridSet;
 import org.junit.Test;
 import org.opengis.referencing.FactoryException;
@@ -57,4 +61,36 @@ public class WorldFileWriterTest {
                         + "90.0\n";
         assertEquals(expected, contents);
     }
+
+    @Test
+    public void testModelMatchesGridSetBounds() {
+        DefaultGridsets gridsets = new DefaultGridsets(true, true);
+        for (GridSet gridSet :
+                Arrays.asList(
+                        gridsets.worldEpsg4326(),
+                        gridsets.worldEpsg4326x2(),
+                        gridsets.worldEpsg3857())) {
+            WorldFileModel model = new WorldFileModel(gridSet);
+            Random random = new Random(0);
+            StringBuilder sb = new StringBuilder();
+            for (int z = 0; z < gridSet.getNumLevels(); z++) {
+                Grid grid = gridSet.getGrid(z);
+                for (int i = 0; i < 1000; i++) {
+                    long x = (long) (random.nextDouble() * grid.getNumTilesWide());
+                    long y = (long) (random.nextDouble() * grid.getNumTilesHigh());
+                    sb.setLength(0);
+                    model.render(x, y, z, sb);
+                    assertEquals(getReferenceWorldFile(gridSet, x, y, z), sb.toString());
+                }
+            }
+        }
+    }
+
+    /** The world file as computed straight from the gridset bounds */
+    private String getReferenceWorldFile(GridSet gridSet, long x, long y, int z) {
+        BoundingBox bbox = gridSet.boundsFromIndex(new long[] {x, y, z});
+        double scaleX = bbox.getWidth() / gridSet.getTileWidth();
+        double scaleY = bbox.getHeight() / gridSet.getTileHeight();
+        return scaleX + "\n0\n0\n" + -scaleY + "\n" + bbox.getMinX() + "\n" + bbox.getMaxY() + "\n";
+    }
 }
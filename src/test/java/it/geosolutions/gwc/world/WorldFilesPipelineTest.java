@@ -0,0 +1,504 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import org.apache.commons.io.FileUtils;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSetBroker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorldFilesPipelineTest {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    @Test
+    public void testGWCLayout() throws Exception {
+        File layer = temp.newFolder("layer");
+        File tile = createTile(layer, "EPSG_4326_01/00_00/01_01.png");
+        createTile(layer, "EPSG_4326_01/00_00/00_00.png");
+        createTile(layer, "EPSG_4326_02/01_00/03_01.jpeg");
+        File notTile = createTile(layer, "EPSG_4326_02/01_00/03_02.txt");
+
+        RunOptions options = new RunOptions();
+        options.parallelism = 2;
+        options.batchSize = 1;
+        options.queueSize = 1;
+        long count = runPipeline(new GWCTileCalculator(), layer, options);
+
+        assertEquals(3, count);
+        File world = new File(tile.getParentFile(), "01_01.wld");
+        assertTrue(world.exists());
+        String expected = "0.3515625\n0\n0\n-0.3515625\n-90.0\n90.0\n";
+        assertEquals(expected, FileUtils.readFileToString(world, UTF_8));
+        assertFalse(new File(notTile.getParentFile(), "03_02.wld").exists());
+
+        // second run does not overwrite
+        assertEquals(0, runPipeline(new GWCTileCalculator(), layer, options));
+        options.overwrite = true;
+        assertEquals(3, runPipeline(new GWCTileCalculator(), layer, options));
+    }
+
+    @Test
+    public void testExistingWorldFiles() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/0/1.png");
+        File world = new File(layer, "EPSG_900913/1/0/1.wld");
+        FileUtils.writeStringToFile(world, "existing", UTF_8);
+
+        assertEquals(1, runPipeline(new XYZTileCalculator(), layer, new RunOptions()));
+        assertEquals("existing", FileUtils.readFileToString(world, UTF_8));
+        assertTrue(new File(layer, "EPSG_900913/1/0/0.wld").exists());
+    }
+
+    @Test
+    public void testListingLimit() throws Exception {
+        File layer = temp.newFolder("layer");
+        for (int y = 0; y < 8; y++) createTile(layer, "EPSG_900913/3/0/" + y + ".png");
+        for (int y = 0; y < 8; y += 3) {
+            File world = new File(layer, "EPSG_900913/3/0/" + y + ".wld");
+            FileUtils.writeStringToFile(world, "existing", UTF_8);
+        }
+
+        // the directory gets streamed, and its world files checked one by one
+        RunOptions options = new RunOptions();
+        options.listingLimit = 2;
+        options.batchSize = 2;
+        options.maxInFlight = 1;
+        assertEquals(5, runPipeline(new XYZTileCalculator(), layer, options));
+        for (int y = 0; y < 8; y += 3) {
+            File world = new File(layer, "EPSG_900913/3/0/" + y + ".wld");
+            assertEquals("existing", FileUtils.readFileToString(world, UTF_8));
+        }
+        assertEquals(0, runPipeline(new XYZTileCalculator(), layer, options));
+
+        // stale world files are found as well
+        File tile = new File(layer, "EPSG_900913/3/0/6.png");
+        assertTrue(tile.setLastModified(System.currentTimeMillis() + 10000));
+        options.newer = true;
+        assertEquals(1, runPipeline(new XYZTileCalculator(), layer, options));
+        File world = new File(layer, "EPSG_900913/3/0/6.wld");
+        assertFalse("existing".equals(FileUtils.readFileToString(world, UTF_8)));
+    }
+
+    @Test
+    public void testWalkQueueSize() throws Exception {
+        File layer = temp.newFolder("layer");
+        for (int z = 3; z <= 4; z++) {
+            for (int x = 0; x < 1 << z; x++) {
+                createTile(layer, "EPSG_900913/" + z + "/" + x + "/0.png");
+            }
+        }
+
+        // 27 directories to list, at most two of them waiting at any time
+        RunOptions options = new RunOptions();
+        options.walkThreads = 1;
+        options.walkQueueSize = 2;
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        assertEquals(24, pipeline.run(layer));
+        assertTrue(pipeline.isComplete());
+        assertTrue(pipeline.getPeakQueuedDirectories() <= 2);
+        assertEquals(27, pipeline.getMetrics().getCount(RunMetrics.Stage.WALK));
+    }
+
+    @Test
+    public void testWalkPriority() throws Exception {
+        // a partial cache, the deeper level has far fewer tiles than the gridset allows
+        File layer = temp.newFolder("layer");
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) createTile(layer, "EPSG_900913/2/" + x + "/" + y + ".png");
+        }
+        createTile(layer, "EPSG_900913/5/0/0.png");
+
+        List<String> listed = Collections.synchronizedList(new ArrayList<>());
+        TileCalculator calculator =
+                new XYZTileCalculator() {
+                    @Override
+                    public boolean isTileDirectory(TileDirectory directory) {
+                        boolean result = super.isTileDirectory(directory);
+                        Path relative = layer.toPath().relativize(directory.path);
+                        if (result) listed.add(relative.toString());
+                        return result;
+                    }
+                };
+        RunOptions options = new RunOptions();
+        options.walkThreads = 1;
+        assertEquals(17, runPipeline(calculator, layer, options));
+
+        // the columns of the wider level come first
+        assertEquals(5, listed.size());
+        assertEquals(new File("EPSG_900913/5/0").getPath(), listed.get(4));
+    }
+
+    @Test
+    public void testWalkOrder() throws Exception {
+        PriorityBlockingQueue<WorldFilesPipeline.WalkTask> queue = new PriorityBlockingQueue<>();
+        List<String> order = new ArrayList<>();
+        queue.add(new WorldFilesPipeline.WalkTask(10, () -> order.add("small")));
+        queue.add(new WorldFilesPipeline.WalkTask(1000, () -> order.add("large")));
+        queue.add(new WorldFilesPipeline.WalkTask(10, () -> order.add("small2")));
+        queue.add(new WorldFilesPipeline.WalkTask(100, () -> order.add("medium")));
+        while (!queue.isEmpty()) queue.poll().run();
+        assertEquals(Arrays.asList("large", "medium", "small", "small2"), order);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/0/1.png");
+        createTile(layer, "EPSG_900913/2/0/0.png");
+        createTile(layer, "EPSG_900913/2/0/aa.png");
+        FileUtils.writeStringToFile(new File(layer, "EPSG_900913/2/0/0.wld"), "", UTF_8);
+
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(
+                        new XYZTileCalculator(), broker, new RunOptions(), Printer.QUIET);
+        assertEquals(2, pipeline.run(layer));
+
+        RunMetrics metrics = pipeline.getMetrics();
+        assertEquals(2, metrics.getCount(RunMetrics.Stage.WRITE));
+        assertEquals(3, metrics.getCount(RunMetrics.Stage.PARSE));
+        assertEquals(2, metrics.getCount(RunMetrics.Stage.COMPUTE));
+        // the tile with a world file, and the one with an invalid name
+        assertEquals(2, metrics.getCount(RunMetrics.Stage.SKIP));
+        assertEquals(0, metrics.getCount(RunMetrics.Stage.ERROR));
+        // gridset, two zoom levels, two columns
+        assertEquals(5, metrics.getCount(RunMetrics.Stage.WALK));
+        RunMetrics.Histogram write = metrics.getHistogram(RunMetrics.Stage.WRITE);
+        assertTrue(write.getPercentile(0.5) <= write.getPercentile(0.99));
+        assertTrue(write.getPercentile(0.99) <= write.maxNanos.get());
+
+        File stats = new File(temp.getRoot(), "stats.json");
+        metrics.writeJson(stats);
+        String json = FileUtils.readFileToString(stats, UTF_8);
+        assertTrue(json, json.contains("\"write\": {\"count\": 2,"));
+        assertTrue(json, json.contains("\"EPSG:900913\": {\"count\": 2,"));
+        assertTrue(json, json.contains("\"zooms\": {\"1\": {\"count\": 2,"));
+    }
+
+    @Test
+    public void testChangeDriven() throws Exception {
+        File layer = temp.newFolder("layer");
+        // up to date world file
+        createTile(layer, "EPSG_900913/1/0/0.png").setLastModified(1000_000);
+        createTile(layer, "EPSG_900913/1/0/0.wld").setLastModified(2000_000);
+        // stale world file
+        createTile(layer, "EPSG_900913/1/0/1.png").setLastModified(3000_000);
+        createTile(layer, "EPSG_900913/1/0/1.wld").setLastModified(2000_000);
+        // tiles before and after the timestamp
+        createTile(layer, "EPSG_900913/1/1/0.png").setLastModified(500_000);
+        createTile(layer, "EPSG_900913/1/1/1.png").setLastModified(900_000);
+
+        RunOptions options = new RunOptions();
+        options.since = 800_000;
+        options.newer = true;
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        assertEquals(2, pipeline.run(layer));
+        assertEquals(2, pipeline.getMetrics().getCount(RunMetrics.Stage.SKIP));
+        assertEquals(1, new File(layer, "EPSG_900913/1/0/0.wld").length());
+        assertTrue(new File(layer, "EPSG_900913/1/0/1.wld").length() > 1);
+        assertFalse(new File(layer, "EPSG_900913/1/1/0.wld").exists());
+        assertTrue(new File(layer, "EPSG_900913/1/1/1.wld").exists());
+
+        File watermark = new File(layer, Watermark.DEFAULT_NAME);
+        assertEquals(-1, Watermark.read(watermark));
+        Watermark.write(watermark, 123456789);
+        assertEquals(123456789, Watermark.read(watermark));
+        assertEquals(
+                Collections.singletonList(Watermark.DEFAULT_NAME),
+                Arrays.asList(layer.list((dir, name) -> name.startsWith(Watermark.DEFAULT_NAME))));
+        // e.g., truncated by a crash while writing
+        FileUtils.writeStringToFile(watermark, "12345abc", UTF_8);
+        assertEquals(-1, Watermark.read(watermark));
+    }
+
+    @Test
+    public void testXYZLayout() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/0/1.png");
+        createTile(layer, "EPSG_900913/1/1/1.png");
+        // too deep to be a tile
+        createTile(layer, "EPSG_900913/1/1/1/1.png");
+        // unknown gridset
+        createTile(layer, "EPSG_1234/1/1/1.png");
+
+        long count = runPipeline(new XYZTileCalculator(), layer, new RunOptions());
+
+        assertEquals(3, count);
+        assertTrue(new File(layer, "EPSG_900913/1/1/1.wld").exists());
+        assertFalse(new File(layer, "EPSG_900913/1/1/1/1.wld").exists());
+        assertFalse(new File(layer, "EPSG_1234/1/1/1.wld").exists());
+    }
+
+    @Test
+    public void testStatModes() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/1/1.png");
+        // files with names the layout accepts as directories
+        createTile(layer, "EPSG_900913/2");
+        createTile(layer, "EPSG_900913/1/3");
+        createTile(layer, "EPSG_900913/1/4.png");
+        // a directory named as a tile
+        assertTrue(new File(layer, "EPSG_900913/1/0/5.png").mkdir());
+
+        for (StatMode mode : StatMode.values()) {
+            RunOptions options = new RunOptions();
+            options.overwrite = true;
+            options.statMode = mode;
+            WorldFilesPipeline pipeline =
+                    new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+            // the directory named as a tile is only recognized when checking every entry
+            assertEquals(mode.toString(), mode == StatMode.ALWAYS ? 2 : 3, pipeline.run(layer));
+            assertTrue(mode.toString(), pipeline.isComplete());
+            assertTrue(new File(layer, "EPSG_900913/1/1/1.wld").exists());
+            FileUtils.deleteQuietly(new File(layer, "EPSG_900913/1/0/5.wld"));
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        File layer = temp.newFolder("layer");
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                createTile(layer, "EPSG_900913/2/" + x + "/" + y + ".png");
+            }
+        }
+
+        // falls back on platform threads before Java 21
+        RunOptions options = new RunOptions();
+        options.virtualThreads = 100;
+        options.batchSize = 3;
+        assertEquals(16, runPipeline(new XYZTileCalculator(), layer, options));
+        assertTrue(new File(layer, "EPSG_900913/2/3/3.wld").exists());
+
+        // a factory is handed out only if it can actually build threads
+        if (VirtualThreads.isSupported()) {
+            Thread thread = VirtualThreads.newFactory("test-").newThread(() -> {});
+            assertEquals("test-1", thread.getName());
+        } else {
+            try {
+                VirtualThreads.newFactory("test-");
+                fail("Expected unsupported virtual threads");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/1/0.png");
+        createTile(layer, "EPSG_900913/1/1/1.png");
+        createTile(layer, "EPSG_900913/2/3/0.png");
+
+        RunOptions options = new RunOptions();
+        options.minZoom = options.maxZoom = 1;
+        // the north-east quarter of the world
+        options.bbox = new BoundingBox(1, 1, 20037508, 20037508);
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        assertEquals(1, pipeline.run(layer));
+        assertTrue(new File(layer, "EPSG_900913/1/1/0.wld").exists());
+        // only the gridset, zoom level 1 and column 1 directories have been listed
+        assertEquals(3, pipeline.getMetrics().getCount(RunMetrics.Stage.WALK));
+        assertTrue(pipeline.isComplete());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/1/0.png");
+        createTile(layer, "EPSG_900913/2/0/0.png");
+        // a previous run completed z=1/x=0 and the whole z=2, and crashed mid-line
+        File journalFile = new File(layer, CheckpointJournal.DEFAULT_NAME);
+        FileUtils.writeStringToFile(
+                journalFile, "EPSG_900913/1/0\nEPSG_900913/2\nEPSG_900913/1", UTF_8);
+
+        CheckpointJournal journal = CheckpointJournal.open(journalFile, null);
+        assertEquals(2, journal.size());
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(
+                        new XYZTileCalculator(), broker, new RunOptions(), Printer.QUIET, journal);
+        assertEquals(1, pipeline.run(layer));
+        journal.close();
+
+        assertTrue(pipeline.isComplete());
+        assertEquals(2, pipeline.getSkippedDirectories());
+        assertTrue(new File(layer, "EPSG_900913/1/1/0.wld").exists());
+        assertFalse(new File(layer, "EPSG_900913/1/0/0.wld").exists());
+        assertFalse(new File(layer, "EPSG_900913/2/0/0.wld").exists());
+        List<String> completed = FileUtils.readLines(journalFile, UTF_8);
+        assertTrue(completed.contains("EPSG_900913/1/1"));
+        assertTrue(completed.contains("EPSG_900913/1"));
+        assertTrue(completed.contains("EPSG_900913"));
+    }
+
+    @Test
+    public void testResumeFilters() throws Exception {
+        File journalFile = new File(temp.getRoot(), CheckpointJournal.DEFAULT_NAME);
+        RunOptions options = new RunOptions();
+        options.maxZoom = 1;
+        CheckpointJournal journal = CheckpointJournal.open(journalFile, options.getFilters());
+        journal.completed("EPSG_900913/2");
+        journal.close();
+        assertEquals("#filters zooms=0-1", FileUtils.readLines(journalFile, UTF_8).get(0));
+
+        // same filters, the recorded directories are loaded
+        journal = CheckpointJournal.open(journalFile, options.getFilters());
+        assertEquals(1, journal.size());
+        assertTrue(journal.isCompleted("EPSG_900913/2"));
+        journal.close();
+
+        // the directories completed for some zoom levels are not complete for the others
+        for (String filters : Arrays.asList(null, "zooms=0-2")) {
+            try {
+                CheckpointJournal.open(journalFile, filters);
+                fail("Expected a filters mismatch with " + filters);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("zooms=0-1"));
+            }
+        }
+    }
+
+    @Test
+    public void testLayers() throws Exception {
+        File root = temp.newFolder("cache");
+        File first = new File(root, "first");
+        File second = new File(root, "second");
+        createTile(first, "EPSG_900913/1/0/0.png");
+        createTile(first, "EPSG_900913/1/1/0.png");
+        createTile(second, "EPSG_900913/2/0/0.png");
+        createTile(second, "EPSG_4326/2/3/1.png");
+        // completed by a previous run
+        createTile(root, "third/EPSG_900913/1/0/0.png");
+        File journalFile = new File(root, CheckpointJournal.DEFAULT_NAME);
+        FileUtils.writeStringToFile(journalFile, "third\n", UTF_8);
+
+        CheckpointJournal journal = CheckpointJournal.open(journalFile, null);
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(
+                        new XYZTileCalculator(), broker, new RunOptions(), Printer.QUIET, journal);
+        List<File> layers = Arrays.asList(first, second, new File(root, "third"));
+        assertEquals(4, pipeline.run(root, layers));
+        journal.close();
+
+        assertTrue(pipeline.isComplete());
+        assertEquals(1, pipeline.getSkippedDirectories());
+        assertTrue(new File(first, "EPSG_900913/1/1/0.wld").exists());
+        assertTrue(new File(second, "EPSG_4326/2/3/1.wld").exists());
+        assertFalse(new File(root, "third/EPSG_900913/1/0/0.wld").exists());
+        List<String> completed = FileUtils.readLines(journalFile, UTF_8);
+        assertTrue(completed.contains("first/EPSG_900913/1/1"));
+        assertTrue(completed.contains("second/EPSG_4326"));
+        assertTrue(completed.contains("second"));
+    }
+
+    @Test
+    public void testPrjModes() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/0/1.png");
+        RunOptions options = new RunOptions();
+        options.prj = true;
+        options.prjMode = PrjMode.LINK;
+        assertEquals(2, runPipeline(new XYZTileCalculator(), layer, options));
+
+        Path canonical = new File(layer, "EPSG_900913/EPSG_900913.prj").toPath();
+        String wkt = new String(Files.readAllBytes(canonical), UTF_8);
+        assertEquals(EpsgWkts.get(900913), wkt);
+        assertTrue(Files.isSameFile(canonical, new File(layer, "EPSG_900913/1/0/0.prj").toPath()));
+        assertTrue(Files.isSameFile(canonical, new File(layer, "EPSG_900913/1/0/1.prj").toPath()));
+
+        options.overwrite = true;
+        options.prjMode = PrjMode.ZOOM;
+        FileUtils.deleteQuietly(new File(layer, "EPSG_900913/1/0/0.prj"));
+        assertEquals(2, runPipeline(new XYZTileCalculator(), layer, options));
+        assertTrue(new File(layer, "EPSG_900913/1/1.prj").exists());
+        assertFalse(new File(layer, "EPSG_900913/1/0/0.prj").exists());
+    }
+
+    @Test
+    public void testOverwriteChanged() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        createTile(layer, "EPSG_900913/1/0/1.png");
+        RunOptions options = new RunOptions();
+        options.prj = true;
+        assertEquals(2, runPipeline(new XYZTileCalculator(), layer, options));
+
+        File world = new File(layer, "EPSG_900913/1/0/0.wld");
+        File prj = new File(layer, "EPSG_900913/1/0/0.prj");
+        String expected = FileUtils.readFileToString(world, UTF_8);
+        assertTrue(world.setLastModified(1000_000));
+        assertTrue(prj.setLastModified(1000_000));
+        File stale = new File(layer, "EPSG_900913/1/0/1.wld");
+        FileUtils.writeStringToFile(stale, "stale", UTF_8);
+
+        // identical sidecars are left alone, the stale one gets rewritten
+        options.overwrite = true;
+        options.overwriteChanged = true;
+        WorldFilesPipeline pipeline =
+                new WorldFilesPipeline(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        assertEquals(1, pipeline.run(layer));
+        assertEquals(1, pipeline.getMetrics().getCount(RunMetrics.Stage.SKIP));
+        assertEquals(1000_000, world.lastModified());
+        assertEquals(1000_000, prj.lastModified());
+        assertEquals(expected, FileUtils.readFileToString(world, UTF_8));
+        assertNotEquals("stale", FileUtils.readFileToString(stale, UTF_8));
+        assertEquals(0, runPipeline(new XYZTileCalculator(), layer, options));
+    }
+
+    long runPipeline(TileCalculator calculator, File layer, RunOptions options)
+            throws Exception {
+        return new WorldFilesPipeline(calculator, broker, options, Printer.QUIET).run(layer);
+    }
+
+    static File createTile(File layer, String path) throws Exception {
+        File tile = new File(layer, path);
+        FileUtils.writeByteArrayToFile(tile, new byte[] {0});
+        return tile;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *    GeoWebCache world files
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2022, GeoSolutions
+ *
+ *    This application is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.gwc.world;
+
+import static it.geosolutions.gwc.world.WorldFilesPipelineTest.createTile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSetBroker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorldFilesWatcherTest {
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    GridSetBroker broker = new GridSetBroker(Arrays.asList(new DefaultGridsets(true, true)));
+
+    @Test
+    public void testWatch() throws Exception {
+        RunOptions options = new RunOptions();
+        options.watchDelay = 50;
+        checkNewTiles(options);
+    }
+
+    @Test
+    public void testPoll() throws Exception {
+        RunOptions options = new RunOptions();
+        options.watchDelay = 50;
+        options.pollInterval = 1;
+        checkNewTiles(options);
+    }
+
+    private void checkNewTiles(RunOptions options) throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        WorldFilesWatcher watcher =
+                new WorldFilesWatcher(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        Thread thread = start(watcher, layer);
+        try {
+            // the existing tiles are handled by the initial run
+            waitFor(new File(layer, "EPSG_900913/1/0/0.wld"));
+
+            // new tile in a watched directory, and a new zoom level
+            createTile(layer, "EPSG_900913/1/0/1.png");
+            createTile(layer, "EPSG_900913/2/3/1.png");
+            // a new gridset
+            createTile(layer, "EPSG_4326/0/1/0.png");
+            waitFor(new File(layer, "EPSG_900913/1/0/1.wld"));
+            waitFor(new File(layer, "EPSG_900913/2/3/1.wld"));
+            waitFor(new File(layer, "EPSG_4326/0/1/0.wld"));
+        } finally {
+            watcher.stop();
+            thread.join(10000);
+        }
+    }
+
+    @Test
+    public void testCatchUp() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        RunOptions options = new RunOptions();
+        WorldFilesWatcher watcher =
+                new WorldFilesWatcher(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            watcher.registerCache(service, layer);
+            int registered = watcher.watched.size();
+
+            // directories created while the events got lost
+            createTile(layer, "EPSG_900913/2/3/1.png");
+            createTile(layer, "EPSG_4326/0/1/0.png");
+            watcher.catchUp(service, layer);
+
+            Set<Path> paths = new HashSet<>();
+            for (WorldFilesWatcher.Watched w : watcher.watched.values()) paths.add(w.path);
+            assertTrue(paths.contains(layer.toPath().resolve("EPSG_900913/2/3")));
+            assertTrue(paths.contains(layer.toPath().resolve("EPSG_4326/0/1")));
+            assertEquals(registered + 5, watcher.watched.size());
+            assertTrue(new File(layer, "EPSG_900913/1/0/0.wld").exists());
+            assertTrue(new File(layer, "EPSG_900913/2/3/1.wld").exists());
+            assertTrue(new File(layer, "EPSG_4326/0/1/0.wld").exists());
+        }
+    }
+
+    @Test
+    public void testStopAndFlush() throws Exception {
+        File layer = temp.newFolder("layer");
+        createTile(layer, "EPSG_900913/1/0/0.png");
+        RunOptions options = new RunOptions();
+        // long enough for the batch to be still pending when stopping
+        options.watchDelay = 60000;
+        WorldFilesWatcher watcher =
+                new WorldFilesWatcher(new XYZTileCalculator(), broker, options, Printer.QUIET);
+        Thread thread = start(watcher, layer);
+        try {
+            waitFor(new File(layer, "EPSG_900913/1/0/0.wld"));
+            createTile(layer, "EPSG_900913/1/0/1.png");
+            long timeout = System.currentTimeMillis() + 10000;
+            while (watcher.pendingCount == 0 && System.currentTimeMillis() < timeout)
+                Thread.sleep(20);
+            assertEquals(1, watcher.pendingCount);
+            File world = new File(layer, "EPSG_900913/1/0/1.wld");
+            assertFalse(world.exists());
+
+            assertTrue(watcher.stopAndFlush(10, TimeUnit.SECONDS));
+            assertTrue(world.exists());
+            assertEquals(1, watcher.getWritten());
+        } finally {
+            watcher.stop();
+            thread.join(10000);
+        }
+    }
+
+    private static Thread start(WorldFilesWatcher watcher, File layer) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try {
+                                watcher.run(layer);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void waitFor(File file) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (!file.exists() && System.currentTimeMillis() < timeout) Thread.sleep(20);
+        assertTrue("Timed out waiting for " + file, file.exists());
+    }
+}
@@ -18,9 +18,12 @@ package it.geosolutions.gwc.world;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import org.geowebcache.config.DefaultGridsets;
 import org.geowebcache.grid.GridSet;
@@ -72,4 +75,44 @@ public class XYZTileCalculatorTest {
     public void testInvalidStructure() {
         assertNull(tileCalculator.getCoordinates(new File("/EPSG_900913/01_02.png"), null));
     }
+
+    @Test
+    public void testTraversal() {
+        TileDirectory root = tileCalculator.getGridsetDirectory(Paths.get("/EPSG_900913"));
+        assertFalse(tileCalculator.isTileDirectory(root));
+        assertNull(tileCalculator.getChildDirectory(root, "EPSG_900913.prj"));
+
+        TileDirectory zoom = tileCalculator.getChildDirectory(root, "3");
+        assertEquals(3, zoom.z);
+        assertFalse(tileCalculator.isTileDirectory(zoom));
+        assertNull(tileCalculator.getChildDirectory(zoom, "abc"));
+
+        TileDirectory column = tileCalculator.getChildDirectory(zoom, "1");
+        assertEquals(1, column.x);
+        assertTrue(tileCalculator.isTileDirectory(column));
+        assertNull(tileCalculator.getChildDirectory(column, "2"));
+
+        // y axis flip
+        long[] coordinates = new long[3];
+        assertTrue(tileCalculator.getCoordinates(column, "2.png", gridSet, coordinates));
+        assertArrayEquals(new long[] {1, 5, 3}, coordinates);
+        assertFalse(tileCalculator.getCoordinates(column, "aa2.png", gridSet, coordinates));
+        TileDirectory outside = tileCalculator.getChildDirectory(root, "99");
+        outside = tileCalculator.getChildDirectory(outside, "1");
+        assertFalse(tileCalculator.getCoordinates(outside, "2.png", gridSet, coordinates));
+    }
+
+    @Test
+    public void testEstimatedTiles() {
+        TileDirectory root = tileCalculator.getGridsetDirectory(Paths.get("/EPSG_900913"));
+        TileDirectory zoom = tileCalculator.getChildDirectory(root, "3");
+        TileDirectory column = tileCalculator.getChildDirectory(zoom, "1");
+        assertEquals(8, tileCalculator.getEstimatedTiles(column, gridSet));
+        assertEquals(64, tileCalculator.getEstimatedTiles(zoom, gridSet));
+        // all levels
+        long tiles = tileCalculator.getEstimatedTiles(root, gridSet);
+        assertEquals((1L << 62) / 3, tiles);
+        TileDirectory outside = tileCalculator.getChildDirectory(root, "99");
+        assertEquals(0, tileCalculator.getEstimatedTiles(outside, gridSet));
+    }
 }